@@ -0,0 +1,100 @@
+package com.ispilo.security;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-thread message throughput (messages/sec per core) for conversation encryption.
+ * "baseline" reproduces the previous SecurityEncryptionService AES path:
+ * Base64 key decode, new SecretKeySpec and Cipher.getInstance on every call.
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=MessageCryptoBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class MessageCryptoBenchmark {
+
+    @Param({"64", "512"})
+    public int messageLength;
+
+    private MessageCryptoEngine engine;
+    private String conversationKey;
+    private String message;
+    private String legacyCipherText;
+    private String gcmCipherText;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(256);
+        conversationKey = Base64.getEncoder().encodeToString(keyGenerator.generateKey().getEncoded());
+
+        StringBuilder builder = new StringBuilder(messageLength);
+        String words = "Habari, the package ships tomorrow morning from Nairobi — asante! ";
+        while (builder.length() < messageLength) {
+            builder.append(words.charAt(builder.length() % words.length()));
+        }
+        message = builder.toString();
+
+        engine = new MessageCryptoEngine(1024);
+        legacyCipherText = baselineEncrypt(message, conversationKey);
+        gcmCipherText = engine.encrypt(message, conversationKey);
+    }
+
+    @Benchmark
+    public String baselineEncrypt() throws Exception {
+        return baselineEncrypt(message, conversationKey);
+    }
+
+    @Benchmark
+    public String baselineDecrypt() throws Exception {
+        return baselineDecrypt(legacyCipherText, conversationKey);
+    }
+
+    @Benchmark
+    public String engineLegacyEncrypt() {
+        return engine.encryptLegacy(message, conversationKey);
+    }
+
+    @Benchmark
+    public String engineLegacyDecrypt() {
+        return engine.decryptLegacy(legacyCipherText, conversationKey);
+    }
+
+    @Benchmark
+    public String engineGcmEncrypt() {
+        return engine.encrypt(message, conversationKey);
+    }
+
+    @Benchmark
+    public String engineGcmDecrypt() {
+        return engine.decrypt(gcmCipherText, conversationKey);
+    }
+
+    private static String baselineEncrypt(String data, String aesKeyString) throws Exception {
+        byte[] decodedKey = Base64.getDecoder().decode(aesKeyString);
+        SecretKey originalKey = new SecretKeySpec(decodedKey, "AES");
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, originalKey);
+        return Base64.getEncoder().encodeToString(cipher.doFinal(data.getBytes()));
+    }
+
+    private static String baselineDecrypt(String encryptedData, String aesKeyString) throws Exception {
+        byte[] decodedKey = Base64.getDecoder().decode(aesKeyString);
+        SecretKey originalKey = new SecretKeySpec(decodedKey, "AES");
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.DECRYPT_MODE, originalKey);
+        return new String(cipher.doFinal(Base64.getDecoder().decode(encryptedData)));
+    }
+}
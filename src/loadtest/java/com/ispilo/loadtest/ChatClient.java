@@ -0,0 +1,149 @@
+package com.ispilo.loadtest;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * One simulated user: a STOMP session on /ws/chat in a single conversation.
+ * Sends are serialized per session, as a WebSocket session allows only one writer.
+ */
+final class ChatClient extends StompSessionHandlerAdapter {
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Delivery(String clientMsgId, String senderId) {}
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record ErrorMessage(String message) {}
+
+    private final String userId;
+    private final String token;
+    private final String conversationId;
+    private final boolean group;
+    private final int recipients;
+    private final String content;
+    // Sent with /app/chat.send, which encrypts with the client's key before storing
+    private final String encryptionKey;
+    private final LatencyRecorder latency;
+
+    private volatile StompSession session;
+
+    ChatClient(String userId, String token, String conversationId, boolean group, int recipients,
+               String content, String encryptionKey, LatencyRecorder latency) {
+        this.userId = userId;
+        this.token = token;
+        this.conversationId = conversationId;
+        this.group = group;
+        this.recipients = recipients;
+        this.content = content;
+        this.encryptionKey = encryptionKey;
+        this.latency = latency;
+    }
+
+    CompletableFuture<StompSession> connect(WebSocketStompClient stompClient, String url) {
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + token);
+        return stompClient.connectAsync(url, new WebSocketHttpHeaders(), connectHeaders, this);
+    }
+
+    @Override
+    public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
+        this.session = session;
+        synchronized (this) {
+            // DIRECT messages arrive on the user queue, GROUP messages on the conversation topic
+            session.subscribe(group ? "/topic/conversation/" + conversationId : "/user/queue/messages",
+                    handler(Delivery.class, delivery -> {
+                        if (!userId.equals(delivery.senderId())) {
+                            latency.onReceived(delivery.clientMsgId());
+                        }
+                    }));
+            session.subscribe("/user/queue/errors", handler(ErrorMessage.class, error -> latency.onError()));
+        }
+    }
+
+    void perform(LoadTestOptions.Operation operation) {
+        StompSession current = session;
+        if (current == null || !current.isConnected()) {
+            latency.onError();
+            return;
+        }
+        try {
+            synchronized (this) {
+                switch (operation) {
+                    case SEND -> {
+                        String clientMsgId = UUID.randomUUID().toString();
+                        latency.onSent(clientMsgId, recipients);
+                        current.send("/app/chat.send", Map.of(
+                                "conversationId", conversationId,
+                                "type", "TEXT",
+                                "content", content,
+                                "clientMsgId", clientMsgId,
+                                "encryptionKey", encryptionKey));
+                    }
+                    case TYPING -> {
+                        current.send("/app/chat.typing", Map.of("conversationId", conversationId, "isTyping", true));
+                        latency.onTyping();
+                    }
+                    case READ -> {
+                        current.send("/app/chat.read", Map.of("conversationId", conversationId));
+                        latency.onRead();
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            latency.onError();
+        }
+    }
+
+    void disconnect() {
+        StompSession current = session;
+        if (current != null && current.isConnected()) {
+            synchronized (this) {
+                current.disconnect();
+            }
+        }
+    }
+
+    @Override
+    public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+                                byte[] payload, Throwable exception) {
+        latency.onError();
+    }
+
+    @Override
+    public void handleTransportError(StompSession session, Throwable exception) {
+        latency.onError();
+    }
+
+    @Override
+    public void handleFrame(StompHeaders headers, Object payload) {
+        // ERROR frames from the server
+        latency.onError();
+    }
+
+    private static <T> StompFrameHandler handler(Class<T> payloadType, Consumer<T> consumer) {
+        return new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return payloadType;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void handleFrame(StompHeaders headers, Object payload) {
+                consumer.accept((T) payload);
+            }
+        };
+    }
+}
@@ -0,0 +1,325 @@
+package com.ispilo.loadtest;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ispilo.IspiloApplication;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import javax.crypto.KeyGenerator;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for the STOMP chat path: opens many sessions on /ws/chat, drives
+ * /app/chat.send, /app/chat.typing and /app/chat.read in a configurable mix and reports
+ * throughput and send-to-receive latency percentiles (HdrHistogram).
+ *
+ * Without --url the application is started in-process with the "loadtest" Spring
+ * profile (in-memory H2, no external services). Users and conversations are created
+ * through the REST API; each session belongs to one DIRECT pair or GROUP of --group-size.
+ *
+ * Run: mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--sessions=2000 --rate=2 --mix=send:70,typing:20,read:10"
+ * Against a running server: -Dloadtest.args="--url=http://host:8080 ..."; a separate server
+ * with the embedded database: mvn -Ploadtest spring-boot:run -Dspring-boot.run.profiles=loadtest
+ * Thousands of sessions need a matching open file limit (ulimit -n) on both ends.
+ */
+public final class ChatLoadTest {
+
+    private record TestUser(String id, String token) {}
+
+    private final LoadTestOptions options;
+    private final LatencyRecorder latency = new LatencyRecorder();
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final String runId = Long.toString(System.currentTimeMillis() % 100_000_000L);
+
+    private ChatLoadTest(LoadTestOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        System.out.println("Chat load test: " + options);
+
+        ConfigurableApplicationContext server = null;
+        if (options.embedded()) {
+            server = new SpringApplicationBuilder(IspiloApplication.class)
+                    .profiles("loadtest")
+                    .properties("server.port=" + options.port)
+                    .run();
+        }
+        int exitCode = 0;
+        try {
+            new ChatLoadTest(options).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            exitCode = 1;
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+        // WebSocket client threads are not daemons
+        System.exit(exitCode);
+    }
+
+    private void run() throws Exception {
+        List<ChatClient> clients = setUp();
+        WebSocketStompClient stompClient = stompClient();
+        connect(clients, stompClient);
+
+        ScheduledExecutorService driver = Executors.newScheduledThreadPool(options.driverThreads);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long startNanos = System.nanoTime();
+        try {
+            long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / options.rate);
+            for (ChatClient client : clients) {
+                // Spread the first operation over one period so sessions do not fire in lockstep
+                driver.scheduleAtFixedRate(() -> client.perform(nextOperation()),
+                        ThreadLocalRandom.current().nextLong(periodNanos), periodNanos, TimeUnit.NANOSECONDS);
+            }
+            long reportMillis = options.reportInterval.toMillis();
+            reporter.scheduleAtFixedRate(() -> {
+                latency.expire(options.timeout.toNanos());
+                latency.report(System.out, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos));
+            }, reportMillis, reportMillis, TimeUnit.MILLISECONDS);
+
+            if (!options.warmup.isZero()) {
+                System.out.println("Warming up for " + options.warmup);
+                Thread.sleep(options.warmup.toMillis());
+            }
+            latency.startMeasuring();
+            System.out.println("Measuring for " + options.duration);
+            Thread.sleep(options.duration.toMillis());
+        } finally {
+            driver.shutdownNow();
+            driver.awaitTermination(10, TimeUnit.SECONDS);
+            latency.stopMeasuring();
+        }
+
+        // Let deliveries of the last sends arrive before counting the rest as lost
+        long drainDeadline = System.nanoTime() + options.timeout.toNanos();
+        while (latency.inFlight() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        reporter.shutdownNow();
+        latency.expire(0);
+
+        if (options.histogramFile.isBlank()) {
+            latency.summary(System.out, null);
+        } else {
+            try (PrintStream histogramOut = new PrintStream(new FileOutputStream(options.histogramFile))) {
+                latency.summary(System.out, histogramOut);
+            }
+            System.out.println("Percentile distribution written to " + options.histogramFile);
+        }
+        clients.forEach(ChatClient::disconnect);
+        stompClient.stop();
+    }
+
+    /**
+     * Register the users and create their conversations through the REST API
+     */
+    private List<ChatClient> setUp() throws Exception {
+        ExecutorService setup = Executors.newFixedThreadPool(options.setupThreads);
+        try {
+            long started = System.nanoTime();
+            List<CompletableFuture<TestUser>> registrations = new ArrayList<>(options.sessions);
+            for (int i = 0; i < options.sessions; i++) {
+                int index = i;
+                registrations.add(CompletableFuture.supplyAsync(() -> register(index), setup));
+            }
+            List<TestUser> users = registrations.stream().map(CompletableFuture::join).toList();
+            System.out.printf("Registered %d users in %d ms%n", users.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+            String content = content(options.messageSize);
+            boolean group = options.groupSize > 2;
+            List<CompletableFuture<List<ChatClient>>> conversations = new ArrayList<>();
+            for (int first = 0; first < users.size(); first += options.groupSize) {
+                List<TestUser> members = users.subList(first, first + options.groupSize);
+                conversations.add(CompletableFuture.supplyAsync(() -> {
+                    String conversationId = createConversation(members, group);
+                    List<ChatClient> clients = new ArrayList<>(members.size());
+                    for (TestUser member : members) {
+                        clients.add(new ChatClient(member.id(), member.token(), conversationId, group,
+                                members.size() - 1, content, newEncryptionKey(), latency));
+                    }
+                    return clients;
+                }, setup));
+            }
+            List<ChatClient> clients = conversations.stream()
+                    .flatMap(future -> future.join().stream())
+                    .toList();
+            System.out.printf("Created %d %s conversations%n", conversations.size(), group ? "GROUP" : "DIRECT");
+            return clients;
+        } finally {
+            setup.shutdown();
+        }
+    }
+
+    private void connect(List<ChatClient> clients, WebSocketStompClient stompClient) throws InterruptedException {
+        String url = options.webSocketUrl();
+        long started = System.nanoTime();
+        List<CompletableFuture<StompSession>> sessions = new ArrayList<>(clients.size());
+        for (int i = 0; i < clients.size(); i++) {
+            if (i > 0 && i % options.connectRate == 0) {
+                // Ramp up at --connect-rate sessions per second
+                long due = started + TimeUnit.SECONDS.toNanos(i / options.connectRate);
+                TimeUnit.NANOSECONDS.sleep(Math.max(0, due - System.nanoTime()));
+            }
+            sessions.add(clients.get(i).connect(stompClient, url));
+        }
+        AtomicInteger failed = new AtomicInteger();
+        for (CompletableFuture<StompSession> session : sessions) {
+            try {
+                session.get(30, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+            }
+        }
+        System.out.printf("Connected %d of %d sessions in %d ms%n", clients.size() - failed.get(), clients.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        if (failed.get() == clients.size()) {
+            throw new IllegalStateException("No STOMP session could connect to " + url);
+        }
+        // SUBSCRIBE frames carry no receipt; give the broker a moment to register them
+        Thread.sleep(2000);
+    }
+
+    private WebSocketStompClient stompClient() {
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        // The server coalesces frames into WebSocket messages of up to app.chat.outbound.max-batch-bytes
+        container.setDefaultMaxTextMessageBufferSize(1024 * 1024);
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient(container));
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(objectMapper);
+        stompClient.setMessageConverter(converter);
+        stompClient.setInboundMessageSizeLimit(1024 * 1024);
+        // No heartbeats, so the driver is the only writer on a session
+        stompClient.setDefaultHeartbeat(new long[]{0, 0});
+        return stompClient;
+    }
+
+    private LoadTestOptions.Operation nextOperation() {
+        int total = options.mix.values().stream().mapToInt(Integer::intValue).sum();
+        int pick = ThreadLocalRandom.current().nextInt(total);
+        for (Map.Entry<LoadTestOptions.Operation, Integer> weight : options.mix.entrySet()) {
+            pick -= weight.getValue();
+            if (pick < 0) {
+                return weight.getKey();
+            }
+        }
+        return LoadTestOptions.Operation.SEND;
+    }
+
+    private TestUser register(int index) {
+        String suffix = runId + "-" + index;
+        JsonNode response = post("/api/auth/register", null, Map.of(
+                "email", "loadtest-" + suffix + "@loadtest.local",
+                "password", "loadtest-password",
+                "firstName", "Load",
+                "lastName", "Test " + index,
+                "phone", "+254" + runId + String.format("%06d", index),
+                "countryCode", "KE",
+                "county", "Nairobi",
+                "town", "Nairobi"));
+        return new TestUser(response.path("user").path("id").asText(), response.path("token").asText());
+    }
+
+    private String createConversation(List<TestUser> members, boolean group) {
+        TestUser creator = members.get(0);
+        JsonNode conversation;
+        if (group) {
+            List<String> others = members.subList(1, members.size()).stream().map(TestUser::id).toList();
+            conversation = post("/api/conversations", creator.token(), Map.of("type", "GROUP", "participantIds", others));
+        } else {
+            conversation = send(request("/api/conversations/direct/" + members.get(1).id(), creator.token()).GET().build());
+        }
+        return conversation.path("id").asText();
+    }
+
+    private JsonNode post(String path, String token, Object body) {
+        try {
+            return send(request(path, token)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private HttpRequest.Builder request(String path, String token) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(options.baseUrl() + path))
+                .timeout(Duration.ofSeconds(30));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder;
+    }
+
+    private JsonNode send(HttpRequest request) {
+        try {
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() / 100 != 2) {
+                throw new IllegalStateException(request.method() + " " + request.uri() + " returned " +
+                        response.statusCode() + ": " + new String(response.body()));
+            }
+            return objectMapper.readTree(response.body());
+        } catch (IOException e) {
+            throw new IllegalStateException(request.method() + " " + request.uri() + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String newEncryptionKey() {
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+            keyGenerator.init(256);
+            return Base64.getEncoder().encodeToString(keyGenerator.generateKey().getEncoded());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String content(int length) {
+        String words = "Habari, the package ships tomorrow morning from Nairobi - asante! ";
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append(words.charAt(builder.length() % words.length()));
+        }
+        return builder.toString();
+    }
+}
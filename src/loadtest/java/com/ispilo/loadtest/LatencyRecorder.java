@@ -0,0 +1,162 @@
+package com.ispilo.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Send-to-receive latency of chat messages, matched by clientMsgId.
+ * Senders and receivers live in the same JVM, so System.nanoTime is comparable on both
+ * ends. Latencies are recorded in microseconds; only messages sent after the warmup count.
+ */
+final class LatencyRecorder {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private record InFlight(long sentNanos, boolean measured, AtomicInteger recipients) {}
+
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private Histogram interval;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder typing = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder unmatched = new LongAdder();
+
+    private volatile long measureFromNanos = Long.MAX_VALUE;
+    private long measureUntilNanos;
+    private long sentBeforeMeasuring;
+    private long sentWhileMeasuring;
+    private long lastReportNanos = System.nanoTime();
+    private long lastSent;
+    private long lastReceived;
+
+    synchronized void startMeasuring() {
+        measureFromNanos = System.nanoTime();
+        recorder.reset();
+        lastReportNanos = measureFromNanos;
+        lastSent = sent.sum();
+        lastReceived = received.sum();
+        sentBeforeMeasuring = lastSent;
+    }
+
+    synchronized void stopMeasuring() {
+        measureUntilNanos = System.nanoTime();
+        sentWhileMeasuring = sent.sum() - sentBeforeMeasuring;
+    }
+
+    void onSent(String clientMsgId, int recipients) {
+        long now = System.nanoTime();
+        inFlight.put(clientMsgId, new InFlight(now, now >= measureFromNanos, new AtomicInteger(recipients)));
+        sent.increment();
+    }
+
+    void onReceived(String clientMsgId) {
+        long now = System.nanoTime();
+        InFlight message = clientMsgId != null ? inFlight.get(clientMsgId) : null;
+        if (message == null) {
+            unmatched.increment();
+            return;
+        }
+        received.increment();
+        if (message.measured()) {
+            recorder.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - message.sentNanos()), HIGHEST_TRACKABLE_MICROS));
+        }
+        if (message.recipients().decrementAndGet() <= 0) {
+            inFlight.remove(clientMsgId, message);
+        }
+    }
+
+    void onTyping() {
+        typing.increment();
+    }
+
+    void onRead() {
+        reads.increment();
+    }
+
+    void onError() {
+        errors.increment();
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Give up on messages older than the timeout; their missing deliveries count as lost
+     */
+    void expire(long timeoutNanos) {
+        long cutoff = System.nanoTime() - timeoutNanos;
+        for (Iterator<InFlight> it = inFlight.values().iterator(); it.hasNext(); ) {
+            InFlight message = it.next();
+            if (message.sentNanos() < cutoff) {
+                it.remove();
+                lost.add(Math.max(0, message.recipients().get()));
+            }
+        }
+    }
+
+    synchronized void report(PrintStream out, long elapsedSeconds) {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastReportNanos) / 1e9);
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+
+        long sentNow = sent.sum();
+        long receivedNow = received.sum();
+        out.printf("[%4ds] send %7.0f/s  recv %7.0f/s  p50 %8.2fms  p99 %8.2fms  p99.9 %8.2fms  max %8.2fms  in-flight %6d  errors %d%n",
+                elapsedSeconds,
+                (sentNow - lastSent) / seconds,
+                (receivedNow - lastReceived) / seconds,
+                millis(interval.getValueAtPercentile(50)),
+                millis(interval.getValueAtPercentile(99)),
+                millis(interval.getValueAtPercentile(99.9)),
+                millis(interval.getMaxValue()),
+                inFlight.size(),
+                errors.sum());
+        lastSent = sentNow;
+        lastReceived = receivedNow;
+        lastReportNanos = now;
+    }
+
+    synchronized void summary(PrintStream out, PrintStream histogramOut) {
+        Histogram last = recorder.getIntervalHistogram(interval);
+        total.add(last);
+        double measuredSeconds = Math.max(1e-9, (measureUntilNanos - measureFromNanos) / 1e9);
+
+        out.println();
+        out.printf("Messages sent %d, received %d, lost %d, unmatched %d, typing %d, read %d, errors %d%n",
+                sent.sum(), received.sum(), lost.sum(), unmatched.sum(), typing.sum(), reads.sum(), errors.sum());
+        out.printf("Measured %.0fs: %d messages sent (%.0f/s), %d deliveries%n", measuredSeconds,
+                sentWhileMeasuring, sentWhileMeasuring / measuredSeconds, total.getTotalCount());
+        out.printf("Send-to-receive latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  p99.99 %.2f  max %.2f  mean %.2f%n",
+                millis(total.getValueAtPercentile(50)),
+                millis(total.getValueAtPercentile(90)),
+                millis(total.getValueAtPercentile(99)),
+                millis(total.getValueAtPercentile(99.9)),
+                millis(total.getValueAtPercentile(99.99)),
+                millis(total.getMaxValue()),
+                total.getMean() / 1000.0);
+        if (histogramOut != null) {
+            // HdrHistogram .hgrm format, values in milliseconds
+            total.outputPercentileDistribution(histogramOut, 1000.0);
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,127 @@
+package com.ispilo.loadtest;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Command line options of ChatLoadTest, given as --name=value.
+ * Arguments may also arrive as one space-separated string (-Dloadtest.args="...").
+ */
+final class LoadTestOptions {
+
+    enum Operation {SEND, TYPING, READ}
+
+    /** Server base URL; empty starts the application in-process with the loadtest profile */
+    String url = "";
+    int port = 18080;
+    int sessions = 1000;
+    /** 2 = one DIRECT conversation per pair of sessions, larger = GROUP conversations of this size */
+    int groupSize = 2;
+    /** Operations per second issued by each session */
+    double rate = 1.0;
+    final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    Duration duration = Duration.ofSeconds(60);
+    Duration warmup = Duration.ofSeconds(10);
+    Duration reportInterval = Duration.ofSeconds(5);
+    /** Messages not received by every recipient within this time count as lost */
+    Duration timeout = Duration.ofSeconds(30);
+    /** New STOMP sessions opened per second */
+    int connectRate = 200;
+    int setupThreads = 16;
+    int driverThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    int messageSize = 64;
+    /** Optional file for the full percentile distribution */
+    String histogramFile = "";
+
+    private LoadTestOptions() {
+        mix.put(Operation.SEND, 80);
+        mix.put(Operation.TYPING, 15);
+        mix.put(Operation.READ, 5);
+    }
+
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            for (String option : arg.trim().split("\\s+")) {
+                if (!option.isEmpty()) {
+                    options.apply(option);
+                }
+            }
+        }
+        options.validate();
+        return options;
+    }
+
+    boolean embedded() {
+        return url.isBlank();
+    }
+
+    String baseUrl() {
+        return embedded() ? "http://localhost:" + port : url.replaceAll("/+$", "");
+    }
+
+    String webSocketUrl() {
+        return baseUrl().replaceFirst("^http", "ws") + "/ws/chat";
+    }
+
+    private void apply(String option) {
+        int equals = option.indexOf('=');
+        if (!option.startsWith("--") || equals < 0) {
+            throw new IllegalArgumentException("Expected --name=value, got: " + option);
+        }
+        String name = option.substring(2, equals);
+        String value = option.substring(equals + 1);
+        switch (name) {
+            case "url" -> url = value;
+            case "port" -> port = Integer.parseInt(value);
+            case "sessions" -> sessions = Integer.parseInt(value);
+            case "group-size" -> groupSize = Integer.parseInt(value);
+            case "rate" -> rate = Double.parseDouble(value);
+            case "mix" -> parseMix(value);
+            case "duration" -> duration = Duration.parse(value);
+            case "warmup" -> warmup = Duration.parse(value);
+            case "report-interval" -> reportInterval = Duration.parse(value);
+            case "timeout" -> timeout = Duration.parse(value);
+            case "connect-rate" -> connectRate = Integer.parseInt(value);
+            case "setup-threads" -> setupThreads = Integer.parseInt(value);
+            case "driver-threads" -> driverThreads = Integer.parseInt(value);
+            case "message-size" -> messageSize = Integer.parseInt(value);
+            case "histogram-file" -> histogramFile = value;
+            default -> throw new IllegalArgumentException("Unknown option --" + name);
+        }
+    }
+
+    // e.g. send:70,typing:20,read:10; weights need not add up to 100
+    private void parseMix(String value) {
+        mix.clear();
+        for (String part : value.split(",")) {
+            String[] weight = part.split(":");
+            if (weight.length != 2) {
+                throw new IllegalArgumentException("Expected operation:weight in --mix, got: " + part);
+            }
+            mix.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+        }
+    }
+
+    private void validate() {
+        if (groupSize < 2) {
+            throw new IllegalArgumentException("--group-size must be at least 2");
+        }
+        if (sessions < groupSize || sessions % groupSize != 0) {
+            throw new IllegalArgumentException("--sessions must be a multiple of --group-size");
+        }
+        if (rate <= 0 || connectRate <= 0) {
+            throw new IllegalArgumentException("--rate and --connect-rate must be positive");
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("--mix needs at least one positive weight");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "sessions=" + sessions + " group-size=" + groupSize + " rate=" + rate + "/s mix=" + mix +
+                " duration=" + duration + " warmup=" + warmup + " target=" + baseUrl();
+    }
+}
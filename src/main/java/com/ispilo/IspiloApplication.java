@@ -8,6 +8,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
@@ -15,6 +16,7 @@ import java.sql.Connection;
 @SpringBootApplication
 @EnableCaching
 @EnableAsync
+@EnableScheduling
 // @EnableJpaAuditing is already present in JpaConfig.java
 public class IspiloApplication {
 
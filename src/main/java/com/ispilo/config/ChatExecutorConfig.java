@@ -0,0 +1,88 @@
+package com.ispilo.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Dedicated, bounded executors for the chat path so CPU-heavy work
+ * does not compete with the default @Async pool.
+ */
+@Configuration
+public class ChatExecutorConfig {
+
+    /**
+     * CPU pool for batch message decryption.
+     * Saturation runs work on the caller thread rather than queueing without bound.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor chatCryptoExecutor(
+            @Value("${app.chat.crypto.pool-size:0}") int poolSize,
+            @Value("${app.chat.crypto.queue-capacity:256}") int queueCapacity) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("chat-crypto-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Pool for pushing chat events to participants off the request, timer and broker threads
+     */
+    @Bean
+    public ThreadPoolTaskExecutor chatFanoutExecutor(
+            @Value("${app.chat.fanout.pool-size:4}") int poolSize,
+            @Value("${app.chat.fanout.queue-capacity:10000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("chat-fanout-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Pool for image work after a media message is stored.
+     * Saturation drops the job instead of running it on the sending thread;
+     * the message keeps its original media URL.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor chatMediaExecutor(
+            @Value("${app.chat.media.pool-size:2}") int poolSize,
+            @Value("${app.chat.media.queue-capacity:500}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("chat-media-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Threads for long maintenance runs (purge, archive). Their @Scheduled methods only
+     * hand a run over, so the shared scheduler thread stays free for heartbeats and flushes.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor chatMaintenanceExecutor(
+            @Value("${app.chat.maintenance.pool-size:2}") int poolSize) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        // Each job has at most one run queued or running
+        executor.setQueueCapacity(poolSize);
+        executor.setThreadNamePrefix("chat-maintenance-");
+        executor.initialize();
+        return executor;
+    }
+}
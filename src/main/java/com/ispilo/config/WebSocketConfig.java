@@ -1,12 +1,24 @@
 package com.ispilo.config;
 
 import com.ispilo.security.WebSocketAuthInterceptor;
+import com.ispilo.service.ClusterBrokerRelay;
+import com.ispilo.service.ConnectionManager;
+import com.ispilo.service.ConversationTopicAuthorizer;
+import com.ispilo.service.OutboundFrameBatcher;
+import com.ispilo.service.PresenceService;
+import com.ispilo.service.SessionResumeService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
 @Configuration
@@ -15,17 +27,29 @@ import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerCo
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private final WebSocketAuthInterceptor webSocketAuthInterceptor;
+    // Present when app.chat.cluster.mode is redis or local
+    private final ObjectProvider<ClusterBrokerRelay> clusterBrokerRelay;
+    private final PresenceService presenceService;
+    private final SessionResumeService sessionResumeService;
+    private final ConversationTopicAuthorizer conversationTopicAuthorizer;
+    private final OutboundFrameBatcher outboundFrameBatcher;
+    private final ConnectionManager connectionManager;
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        // Enable simple in-memory broker for pub/sub
-        config.enableSimpleBroker("/topic", "/queue", "/user");
+        // Enable simple in-memory broker for pub/sub; STOMP heartbeats are left to the ConnectionManager.
+        // Not for /user: those are resolved to per-session queues first, and a broker subscription
+        // to the raw /user/queue/... destination would take the subscription id and get nothing.
+        config.enableSimpleBroker("/topic", "/queue");
 
         // Prefix for messages from client
         config.setApplicationDestinationPrefixes("/app");
 
         // Prefix for user-specific messages
         config.setUserDestinationPrefix("/user");
+
+        // Relay /topic and /user sends to the other nodes
+        clusterBrokerRelay.ifAvailable(relay -> config.configureBrokerChannel().interceptors(relay));
     }
 
     @Override
@@ -40,10 +64,35 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .setAllowedOriginPatterns("*");
     }
 
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Later factories wrap earlier ones: the batcher sits outermost, right on the connection,
+        // so heartbeats from the connection manager are queued with the other frames
+        registration.addDecoratorFactory(connectionManager);
+        // Bounded, batched outbound queue per session
+        registration.addDecoratorFactory(outboundFrameBatcher);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Heartbeat values for CONNECTED
+        registration.interceptors(connectionManager);
+    }
+
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        // Add authentication interceptor
-        registration.interceptors(webSocketAuthInterceptor);
+        // Authentication first, then subscription checks against the authenticated user
+        registration.interceptors(webSocketAuthInterceptor, conversationTopicAuthorizer, new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                // Every frame, heartbeats included, keeps the sender's presence alive
+                // and lets its resume point catch up
+                String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+                presenceService.onInboundFrame(sessionId);
+                sessionResumeService.onInboundFrame(sessionId);
+                return message;
+            }
+        });
     }
 }
 
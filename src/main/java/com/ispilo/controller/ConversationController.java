@@ -2,6 +2,7 @@ package com.ispilo.controller;
 
 import com.ispilo.model.dto.request.CreateConversationRequest;
 import com.ispilo.model.dto.response.ConversationResponse;
+import com.ispilo.model.dto.response.CursorPageResponse;
 import com.ispilo.model.dto.response.MessageResponse;
 import com.ispilo.model.dto.response.PageResponse;
 import com.ispilo.security.UserPrincipal;
@@ -79,31 +80,38 @@ public class ConversationController {
     }
 
     /**
-     * Get messages in a conversation (paginated)
+     * Get messages in a conversation (cursor paginated, newest first)
      */
     @GetMapping("/{conversationId}/messages")
-    public ResponseEntity<PageResponse<MessageResponse>> getConversationMessages(
+    public ResponseEntity<CursorPageResponse<MessageResponse>> getConversationMessages(
             @AuthenticationPrincipal UserPrincipal userPrincipal,
             @PathVariable String conversationId,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "50") int size) {
 
         log.info("Getting messages for conversation {} by user {}",
                 conversationId, userPrincipal.getId());
 
-        Page<MessageResponse> messages = messageService.getConversationMessages(
-                userPrincipal.getId(), conversationId, page, size);
+        return ResponseEntity.ok(messageService.getConversationMessages(
+                userPrincipal.getId(), conversationId, before, after, page, size));
+    }
 
-        PageResponse<MessageResponse> response = new PageResponse<>(
-                messages.getContent(),
-                messages.getNumber(),
-                messages.getSize(),
-                messages.getTotalElements(),
-                messages.getTotalPages(),
-                messages.isLast()
-        );
+    /**
+     * Keyword search within a conversation, newest hits first; pass nextCursor as "before" for more
+     * Example: /api/conversations/{id}/messages/search?q=dinner friday
+     */
+    @GetMapping("/{conversationId}/messages/search")
+    public ResponseEntity<CursorPageResponse<MessageResponse>> searchMessages(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @PathVariable String conversationId,
+            @RequestParam("q") String query,
+            @RequestParam(required = false) String before,
+            @RequestParam(defaultValue = "20") int size) {
 
-        return ResponseEntity.ok(response);
+        log.info("Searching messages in conversation {} by user {}", conversationId, userPrincipal.getId());
+        return ResponseEntity.ok(messageService.searchMessages(userPrincipal.getId(), conversationId, query, before, size));
     }
 
     /**
@@ -1,9 +1,9 @@
 package com.ispilo.controller;
 
+import com.ispilo.model.dto.response.CursorPageResponse;
 import com.ispilo.model.dto.response.MessageResponse;
 import com.ispilo.service.MessageService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -17,13 +17,15 @@ public class MessageController {
     private final MessageService messageService;
 
     @GetMapping("/conversation/{conversationId}")
-    public ResponseEntity<Page<MessageResponse>> getConversationMessages(
+    public ResponseEntity<CursorPageResponse<MessageResponse>> getConversationMessages(
             @AuthenticationPrincipal UserDetails userDetails,
             @PathVariable String conversationId,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size) {
         return ResponseEntity.ok(messageService.getConversationMessages(
-                userDetails.getUsername(), conversationId, page, size));
+                userDetails.getUsername(), conversationId, before, after, page, size));
     }
 
     @PostMapping("/conversation/{conversationId}/read")
@@ -0,0 +1,43 @@
+package com.ispilo.controller;
+
+import com.ispilo.exception.BadRequestException;
+import com.ispilo.model.dto.response.PresenceResponse;
+import com.ispilo.security.UserPrincipal;
+import com.ispilo.service.PresenceService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/presence")
+@RequiredArgsConstructor
+public class PresenceController {
+
+    private final PresenceService presenceService;
+
+    @Value("${app.chat.presence.max-ids:200}")
+    private int maxIds;
+
+    /**
+     * Online status and last-seen for a batch of users; ids the caller shares no conversation with are left out
+     * Example: /api/presence?ids=user1,user2,user3
+     */
+    @GetMapping
+    public ResponseEntity<List<PresenceResponse>> getPresence(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @RequestParam List<String> ids) {
+
+        List<String> distinct = ids.stream().filter(id -> !id.isBlank()).distinct().toList();
+        if (distinct.size() > maxIds) {
+            throw new BadRequestException("At most " + maxIds + " ids per request");
+        }
+        return ResponseEntity.ok(presenceService.getPresence(userPrincipal.getId(), distinct));
+    }
+}
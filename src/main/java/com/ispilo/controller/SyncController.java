@@ -0,0 +1,40 @@
+package com.ispilo.controller;
+
+import com.ispilo.model.dto.response.SyncResponse;
+import com.ispilo.security.UserPrincipal;
+import com.ispilo.service.SyncService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/sync")
+@RequiredArgsConstructor
+@Slf4j
+public class SyncController {
+
+    private final SyncService syncService;
+
+    /**
+     * Delta sync after reconnect
+     * Example: /api/sync?since=conv1:42,conv2:7&readSince=2024-05-01T10:15:30
+     */
+    @GetMapping
+    public ResponseEntity<SyncResponse> sync(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @RequestParam(required = false) List<String> since,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime readSince) {
+
+        log.info("Sync requested by user {}", userPrincipal.getId());
+        return ResponseEntity.ok(syncService.sync(userPrincipal.getId(), since, readSince));
+    }
+}
@@ -2,14 +2,20 @@ package com.ispilo.controller;
 
 import com.ispilo.model.dto.request.SendMessageRequest;
 import com.ispilo.model.dto.response.MessageResponse;
+import com.ispilo.model.dto.response.SessionResumeResponse;
 import com.ispilo.security.SecurityEncryptionService;
+import com.ispilo.security.UserPrincipal;
+import com.ispilo.service.DeliveryReceiptService;
 import com.ispilo.service.MessageService;
+import com.ispilo.service.SessionResumeService;
+import com.ispilo.service.TypingIndicatorService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Controller;
@@ -22,6 +28,9 @@ public class WebSocketController {
     private final MessageService messageService;
     private final SecurityEncryptionService encryptionService;
     private final SimpMessagingTemplate messagingTemplate;
+    private final TypingIndicatorService typingIndicatorService;
+    private final DeliveryReceiptService deliveryReceiptService;
+    private final SessionResumeService sessionResumeService;
 
     /**
      * Send encrypted message through WebSocket
@@ -40,9 +49,7 @@ public class WebSocketController {
                 return;
             }
 
-            // Extract user ID from principal (assuming principal is UserDetails or similar)
-            // Adjust this based on your actual UserPrincipal implementation
-            String userId = auth.getName(); 
+            String userId = userId(auth);
 
             // Encrypt message content before saving
             String encryptedContent = encryptionService.encryptWithAES(
@@ -59,17 +66,12 @@ public class WebSocketController {
                     .type(request.getType())
                     .clientMsgId(request.getClientMsgId())
                     .encryptionKey(request.getEncryptionKey())
+                    .plainContent(request.getContent())
                     .build();
 
-            // Send message through service
+            // Send message through service; it also delivers to the participants
             MessageResponse response = messageService.sendMessage(userId, encryptedRequest);
 
-            // Broadcast to conversation participants
-            messagingTemplate.convertAndSend(
-                    "/topic/conversation/" + request.getConversationId(),
-                    response
-            );
-
             log.info("Message sent successfully: {}", response.getId());
 
         } catch (Exception e) {
@@ -90,19 +92,10 @@ public class WebSocketController {
             UsernamePasswordAuthenticationToken auth = (UsernamePasswordAuthenticationToken) headerAccessor.getUser();
             if (auth == null) return;
 
-            String userId = auth.getName();
+            String userId = userId(auth);
 
-            // Broadcast typing indicator to other participants
-            messagingTemplate.convertAndSend(
-                    "/topic/conversation/" + notification.conversationId() + "/typing",
-                    new TypingIndicator(
-                            userId,
-                            userId, // Or fetch username if needed
-                            notification.isTyping()
-                    )
-            );
-
-            log.debug("Typing notification sent: {} in {}", userId, notification.conversationId());
+            // Coalesced: at most one "typing" per interval, "stopped" sent after inactivity
+            typingIndicatorService.onTypingFrame(userId, notification.conversationId(), notification.isTyping());
 
         } catch (Exception e) {
             log.error("Error handling typing notification", e);
@@ -121,7 +114,7 @@ public class WebSocketController {
             UsernamePasswordAuthenticationToken auth = (UsernamePasswordAuthenticationToken) headerAccessor.getUser();
             if (auth == null) return;
 
-            String userId = auth.getName();
+            String userId = userId(auth);
 
             // Mark messages as read in database
             messageService.markMessagesAsRead(userId, request.conversationId());
@@ -143,12 +136,49 @@ public class WebSocketController {
         }
     }
 
+    /**
+     * Acknowledge delivery of everything up to a sequence number
+     * Path: /app/chat.delivered
+     */
+    @MessageMapping("/chat.delivered")
+    public void markAsDelivered(
+            @Payload DeliveryAckRequest request,
+            SimpMessageHeaderAccessor headerAccessor) {
+        try {
+            UsernamePasswordAuthenticationToken auth = (UsernamePasswordAuthenticationToken) headerAccessor.getUser();
+            if (auth == null) return;
+
+            // Batched; senders get "delivered up to seq" on the next flush
+            deliveryReceiptService.acknowledge(userId(auth), request.conversationId(), request.seq());
+
+        } catch (Exception e) {
+            log.error("Error recording delivery receipt", e);
+        }
+    }
+
+    /**
+     * Session handshake, answered to the subscriber only: the resume token for the next
+     * reconnect and, right after a resume, the events missed in between.
+     * Path: subscribe to /app/session once the other subscriptions are in place
+     */
+    @SubscribeMapping("/session")
+    public SessionResumeResponse session(SimpMessageHeaderAccessor headerAccessor) {
+        return sessionResumeService.handshake(headerAccessor.getSessionId());
+    }
+
+    private static String userId(UsernamePasswordAuthenticationToken auth) {
+        return auth.getPrincipal() instanceof UserPrincipal principal ? principal.getId() : auth.getName();
+    }
+
     /**
      * Send error message to client
      */
     private void sendError(SimpMessageHeaderAccessor headerAccessor, String errorMessage) {
+        if (headerAccessor.getUser() == null) {
+            return;
+        }
         messagingTemplate.convertAndSendToUser(
-                headerAccessor.getSessionId(),
+                headerAccessor.getUser().getName(),
                 "/queue/errors",
                 new ErrorMessage(errorMessage, System.currentTimeMillis())
         );
@@ -161,16 +191,15 @@ public class WebSocketController {
             boolean isTyping
     ) {}
 
-    public record TypingIndicator(
-            String userId,
-            String username,
-            boolean isTyping
-    ) {}
-
     public record ReadReceiptRequest(
             String conversationId
     ) {}
 
+    public record DeliveryAckRequest(
+            String conversationId,
+            long seq
+    ) {}
+
     public record ReadReceipt(
             String userId,
             String conversationId,
@@ -1,5 +1,6 @@
 package com.ispilo.model.dto.request;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.ispilo.model.enums.MessageType;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
@@ -31,4 +32,11 @@ public class SendMessageRequest {
     private String clientMsgId;
 
     private String encryptionKey;
+
+    /**
+     * Plaintext of content when content already arrives encrypted with the client's key,
+     * as on the STOMP path; only fed to the search index, never read from the client.
+     */
+    @JsonIgnore
+    private String plainContent;
 }
@@ -0,0 +1,27 @@
+package com.ispilo.model.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Changes in one conversation past the client's last known sequence.
+ * Store syncedSeq and send it back as the next "since" for this conversation.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConversationDeltaResponse {
+
+    private String conversationId;
+    private Long lastSeq;
+    private Long syncedSeq;
+    private List<MessageResponse> messages;
+    private List<String> deletedMessageIds;
+    private List<ReadWatermarkResponse> readWatermarks;
+    private boolean hasMore;
+}
@@ -1,6 +1,7 @@
 package com.ispilo.model.dto.response;
 
 import com.ispilo.model.entity.Conversation;
+import com.ispilo.model.entity.ConversationInboxEntry;
 import com.ispilo.model.enums.ConversationType;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -22,6 +23,7 @@ public class ConversationResponse {
     private List<UserResponse> participants;
     private String lastMessage;
     private LocalDateTime lastMessageAt;
+    private Integer unreadCount;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
@@ -38,4 +40,20 @@ public class ConversationResponse {
                 .updatedAt(conversation.getUpdatedAt())
                 .build();
     }
+
+    /**
+     * Chat-list row built from the inbox table; participants are only
+     * resolved for DIRECT conversations (the viewer and the peer)
+     */
+    public static ConversationResponse fromInboxEntry(ConversationInboxEntry entry, List<UserResponse> participants) {
+        return ConversationResponse.builder()
+                .id(entry.getConversationId())
+                .type(entry.getConversationType())
+                .participants(participants)
+                .lastMessage(entry.getLastMessagePreview())
+                .lastMessageAt(entry.getLastMessageAt())
+                .unreadCount(entry.getUnreadCount())
+                .createdAt(entry.getCreatedAt())
+                .build();
+    }
 }
@@ -0,0 +1,24 @@
+package com.ispilo.model.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Keyset page, newest first. Pass nextCursor as "before" to load older items
+ * and prevCursor as "after" to load newer ones. No total count is computed.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CursorPageResponse<T> {
+    private List<T> content;
+    private int size;
+    private boolean hasMore;
+    private String nextCursor;
+    private String prevCursor;
+}
@@ -18,12 +18,15 @@ public class MessageResponse {
     private String id;
     private String clientMsgId;
     private String conversationId;
+    private Long seq;
     private String senderId;
     private String senderName;
     private String senderAvatar;
     private MessageType type;
     private String content;
     private String mediaUrl;
+    private String thumbnailUrl;
+    private String previewUrl;
     private Boolean isRead;
     private LocalDateTime createdAt;
 
@@ -32,12 +35,15 @@ public class MessageResponse {
                 .id(message.getId())
                 .clientMsgId(message.getClientMsgId())
                 .conversationId(message.getConversation().getId())
+                .seq(message.getSeq())
                 .senderId(message.getSender().getId())
                 .senderName(message.getSender().getName())
                 .senderAvatar(message.getSender().getAvatar())
                 .type(message.getType())
                 .content(message.getContent())
                 .mediaUrl(message.getMediaUrl())
+                .thumbnailUrl(message.getThumbnailUrl())
+                .previewUrl(message.getPreviewUrl())
                 .isRead(message.getIsRead())
                 .createdAt(message.getCreatedAt())
                 .build();
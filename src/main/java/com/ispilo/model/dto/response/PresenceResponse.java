@@ -0,0 +1,19 @@
+package com.ispilo.model.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PresenceResponse {
+
+    private String userId;
+    private Boolean online;
+    private LocalDateTime lastSeenAt;
+}
@@ -0,0 +1,30 @@
+package com.ispilo.model.dto.response;
+
+import com.ispilo.model.entity.ConversationReadState;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReadWatermarkResponse {
+
+    private String userId;
+    private Long lastReadSeq;
+    private Long lastDeliveredSeq;
+    private LocalDateTime lastReadAt;
+
+    public static ReadWatermarkResponse fromEntity(ConversationReadState readState) {
+        return ReadWatermarkResponse.builder()
+                .userId(readState.getUserId())
+                .lastReadSeq(readState.getLastReadSeq())
+                .lastDeliveredSeq(readState.getLastDeliveredSeq())
+                .lastReadAt(readState.getLastReadAt())
+                .build();
+    }
+}
@@ -0,0 +1,28 @@
+package com.ispilo.model.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SessionResumeResponse {
+
+    // Present as the resume-token header on the next CONNECT
+    private String resumeToken;
+    private Long resumeWindowMs;
+    private Boolean resumed;
+    // Some missed events were no longer buffered; the client should delta sync
+    private Boolean truncated;
+    private List<ReplayedEvent> missedEvents;
+
+    /**
+     * An event as it was published, with the destination it was published to
+     */
+    public record ReplayedEvent(String destination, Object payload) {}
+}
@@ -0,0 +1,19 @@
+package com.ispilo.model.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SyncResponse {
+
+    private List<ConversationDeltaResponse> conversations;
+    private LocalDateTime serverTime;
+}
@@ -8,14 +8,20 @@ import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
+import java.util.HexFormat;
 import java.util.Set;
 
 @Entity
-@Table(name = "conversations")
+@Table(name = "conversations", uniqueConstraints = {
+    @UniqueConstraint(name = "unique_direct_key", columnNames = {"direct_key"})
+}, indexes = {
+    @Index(name = "idx_conversation_deleted_at", columnList = "deleted_at")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -41,10 +47,12 @@ public class Conversation {
     @Builder.Default
     private Set<User> participants = new HashSet<>();
 
-    @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL, orphanRemoval = true)
-    @OrderBy("createdAt DESC")
-    @Builder.Default
-    private List<Message> messages = new ArrayList<>();
+    /**
+     * Canonical key of a DIRECT conversation's user pair, see {@link #directKeyFor}.
+     * Null for groups, and cleared when a participant leaves so the pair can start over.
+     */
+    @Column(name = "direct_key", length = 64)
+    private String directKey;
 
     @Column(name = "last_message")
     private String lastMessage;
@@ -52,6 +60,27 @@ public class Conversation {
     @Column(name = "last_message_at")
     private LocalDateTime lastMessageAt;
 
+    /**
+     * Highest sequence number handed out in this conversation.
+     * Every new message and every deletion takes the next value.
+     */
+    @Column(name = "last_seq", nullable = false)
+    @Builder.Default
+    private Long lastSeq = 0L;
+
+    /**
+     * Newest created_at moved to message_archive_segments, null while nothing is archived
+     */
+    @Column(name = "archived_until")
+    private LocalDateTime archivedUntil;
+
+    /**
+     * Set when the last participant leaves; ChatPurgeJob then removes the conversation
+     * and its messages in chunks
+     */
+    @Column(name = "deleted_at")
+    private LocalDateTime deletedAt;
+
     @Column(name = "encryption_key", length = 500)
     private String encryptionKey;
 
@@ -62,5 +91,18 @@ public class Conversation {
     @LastModifiedDate
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
-}
 
+    /**
+     * SHA-256 hex of the two user ids in binary order, joined by ':'.
+     * ChatDataBackfill computes the same value in SQL for existing rows.
+     */
+    public static String directKeyFor(String userId1, String userId2) {
+        String pair = userId1.compareTo(userId2) <= 0 ? userId1 + ":" + userId2 : userId2 + ":" + userId1;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(pair.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
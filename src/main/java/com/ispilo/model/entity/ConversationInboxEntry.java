@@ -0,0 +1,56 @@
+package com.ispilo.model.entity;
+
+import com.ispilo.model.enums.ConversationType;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Denormalized chat-list row, one per (user, conversation).
+ * Maintained on send, read, join and leave so the chat list is a single
+ * range scan on (user_id, last_message_at).
+ */
+@Entity
+@Table(name = "conversation_inbox", uniqueConstraints = {
+    @UniqueConstraint(name = "unique_inbox_user_conversation", columnNames = {"user_id", "conversation_id"})
+}, indexes = {
+    @Index(name = "idx_inbox_user_last_message", columnList = "user_id, last_message_at"),
+    @Index(name = "idx_inbox_conversation", columnList = "conversation_id")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConversationInboxEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private String userId;
+
+    @Column(name = "conversation_id", nullable = false)
+    private String conversationId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "conversation_type", nullable = false)
+    private ConversationType conversationType;
+
+    @Column(name = "peer_user_id")
+    private String peerUserId; // Other participant of a DIRECT conversation
+
+    @Column(name = "last_message_at")
+    private LocalDateTime lastMessageAt;
+
+    @Column(name = "last_message_preview")
+    private String lastMessagePreview;
+
+    @Column(name = "unread_count", nullable = false)
+    @Builder.Default
+    private Integer unreadCount = 0;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,46 @@
+package com.ispilo.model.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Per-(conversation, user) read watermark.
+ * Every message with seq <= lastReadSeq counts as read for that user, and every
+ * message with seq <= lastDeliveredSeq has reached one of the user's devices.
+ */
+@Entity
+@Table(name = "conversation_read_states", uniqueConstraints = {
+    @UniqueConstraint(name = "unique_conversation_user_read", columnNames = {"conversation_id", "user_id"})
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConversationReadState {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "conversation_id", nullable = false)
+    private String conversationId;
+
+    @Column(name = "user_id", nullable = false)
+    private String userId;
+
+    @Column(name = "last_read_seq", nullable = false)
+    @Builder.Default
+    private Long lastReadSeq = 0L;
+
+    @Column(name = "last_delivered_seq", nullable = false)
+    @Builder.Default
+    private Long lastDeliveredSeq = 0L;
+
+    @Column(name = "last_read_at")
+    private LocalDateTime lastReadAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
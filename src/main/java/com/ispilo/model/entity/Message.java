@@ -11,8 +11,11 @@ import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "messages", indexes = {
-    @Index(name = "idx_conversation_id", columnList = "conversation_id"),
+    @Index(name = "idx_conversation_created_id", columnList = "conversation_id, created_at, id"),
+    @Index(name = "idx_conversation_seq", columnList = "conversation_id, seq", unique = true),
+    @Index(name = "idx_conversation_deleted_seq", columnList = "conversation_id, deleted_seq"),
     @Index(name = "idx_sender_id", columnList = "sender_id"),
+    @Index(name = "idx_created_at", columnList = "created_at"),
     @Index(name = "idx_client_msg_id", columnList = "client_msg_id", unique = true),
     @Index(name = "idx_is_read", columnList = "is_read")
 })
@@ -31,6 +34,12 @@ public class Message {
     @Column(name = "client_msg_id", nullable = false, unique = true)
     private String clientMsgId;
 
+    /**
+     * Per-conversation sequence number, assigned at insert
+     */
+    @Column(name = "seq")
+    private Long seq;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "conversation_id", nullable = false)
     private Conversation conversation;
@@ -63,6 +72,15 @@ public class Message {
     @Column(name = "media_url")
     private String mediaUrl;
 
+    /**
+     * Downscaled variants of an IMAGE, filled in by MediaProcessingService after the send
+     */
+    @Column(name = "thumbnail_url")
+    private String thumbnailUrl;
+
+    @Column(name = "preview_url")
+    private String previewUrl;
+
     @Column(name = "is_read")
     @Builder.Default
     private Boolean isRead = false;
@@ -74,6 +92,12 @@ public class Message {
     @Builder.Default
     private Boolean isDeleted = false;
 
+    /**
+     * Conversation sequence number taken by the deletion, so sync can report it
+     */
+    @Column(name = "deleted_seq")
+    private Long deletedSeq;
+
     @CreatedDate
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -0,0 +1,50 @@
+package com.ispilo.model.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * A run of archived messages of one conversation, oldest first, gzip-compressed.
+ * Segments of a conversation never overlap, so the (created_at, id) bounds
+ * are enough to find the segments a history cursor needs.
+ */
+@Entity
+@Table(name = "message_archive_segments", indexes = {
+    @Index(name = "idx_archive_conversation_last_created", columnList = "conversation_id, last_created_at")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class MessageArchiveSegment {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "conversation_id", nullable = false)
+    private String conversationId;
+
+    @Column(name = "first_seq")
+    private Long firstSeq;
+
+    @Column(name = "last_seq")
+    private Long lastSeq;
+
+    @Column(name = "first_created_at", nullable = false)
+    private LocalDateTime firstCreatedAt;
+
+    @Column(name = "last_created_at", nullable = false)
+    private LocalDateTime lastCreatedAt;
+
+    @Column(name = "message_count", nullable = false)
+    private Integer messageCount;
+
+    @Column(name = "payload", nullable = false, columnDefinition = "LONGBLOB")
+    private byte[] payload;
+
+    @Column(name = "archived_at", nullable = false)
+    private LocalDateTime archivedAt;
+}
@@ -0,0 +1,40 @@
+package com.ispilo.model.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Blind index entry: one keyed hash of a normalized word of a message.
+ * The token reveals nothing about the word without the index key, and the
+ * conversation id is mixed in so equal words hash differently per conversation.
+ */
+@Entity
+@Table(name = "message_search_tokens", uniqueConstraints = {
+    @UniqueConstraint(name = "unique_search_token_message", columnNames = {"message_id", "token"})
+}, indexes = {
+    @Index(name = "idx_search_conversation_token", columnList = "conversation_id, token, created_at")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class MessageSearchToken {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "conversation_id", nullable = false)
+    private String conversationId;
+
+    @Column(name = "message_id", nullable = false)
+    private String messageId;
+
+    @Column(nullable = false, length = 32)
+    private String token;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
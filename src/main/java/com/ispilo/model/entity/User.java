@@ -87,6 +87,12 @@ public class User {
     @Builder.Default
     private List<Comment> comments = new ArrayList<>();
 
+    /**
+     * Last time the user was seen connected, written in batches by PresenceService
+     */
+    @Column(name = "last_seen_at")
+    private LocalDateTime lastSeenAt;
+
     @CreatedDate
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
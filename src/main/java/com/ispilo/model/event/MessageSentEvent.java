@@ -0,0 +1,11 @@
+package com.ispilo.model.event;
+
+import com.ispilo.model.dto.response.MessageResponse;
+import com.ispilo.model.enums.ConversationType;
+
+/**
+ * A message was stored (or logged, in write-ahead log mode). Published inside the
+ * sending transaction; participants are notified only after it commits.
+ */
+public record MessageSentEvent(String conversationId, ConversationType conversationType,
+                               String senderId, MessageResponse message) {}
@@ -0,0 +1,6 @@
+package com.ispilo.model.event;
+
+/**
+ * A user's read watermark in a conversation moved to lastReadSeq
+ */
+public record MessagesReadEvent(String conversationId, String userId, long lastReadSeq) {}
@@ -0,0 +1,76 @@
+package com.ispilo.repository;
+
+import com.ispilo.model.entity.ConversationInboxEntry;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface ConversationInboxRepository extends JpaRepository<ConversationInboxEntry, Long> {
+
+    @Query(value = "SELECT e FROM ConversationInboxEntry e WHERE e.userId = :userId " +
+            "ORDER BY e.lastMessageAt DESC, e.id DESC",
+            countQuery = "SELECT count(e) FROM ConversationInboxEntry e WHERE e.userId = :userId")
+    Page<ConversationInboxEntry> findInbox(@Param("userId") String userId, Pageable pageable);
+
+    Optional<ConversationInboxEntry> findByUserIdAndConversationId(String userId, String conversationId);
+
+    // One statement per send: bump every participant's row, unread for everyone but the sender
+    @Modifying
+    @Query(value = "UPDATE conversation_inbox SET last_message_at = :sentAt, last_message_preview = :preview, " +
+            "unread_count = unread_count + CASE WHEN user_id = :senderId THEN 0 ELSE 1 END " +
+            "WHERE conversation_id = :conversationId", nativeQuery = true)
+    void recordMessage(@Param("conversationId") String conversationId,
+                       @Param("senderId") String senderId,
+                       @Param("sentAt") LocalDateTime sentAt,
+                       @Param("preview") String preview);
+
+    // A batch of count messages from one sender
+    @Modifying
+    @Query(value = "UPDATE conversation_inbox SET last_message_at = :sentAt, last_message_preview = :preview, " +
+            "unread_count = unread_count + CASE WHEN user_id = :senderId THEN 0 ELSE :count END " +
+            "WHERE conversation_id = :conversationId", nativeQuery = true)
+    void recordMessages(@Param("conversationId") String conversationId,
+                        @Param("senderId") String senderId,
+                        @Param("sentAt") LocalDateTime sentAt,
+                        @Param("preview") String preview,
+                        @Param("count") int count);
+
+    // Recount what is still unread past the new watermark (normally zero)
+    @Modifying
+    @Query(value = "UPDATE conversation_inbox SET unread_count = (" +
+            "SELECT COUNT(*) FROM messages m WHERE m.conversation_id = :conversationId " +
+            "AND m.seq > :lastReadSeq AND m.sender_id <> :userId AND m.is_deleted = false) " +
+            "WHERE conversation_id = :conversationId AND user_id = :userId", nativeQuery = true)
+    void recountUnread(@Param("conversationId") String conversationId,
+                       @Param("userId") String userId,
+                       @Param("lastReadSeq") long lastReadSeq);
+
+    @Modifying
+    @Query("DELETE FROM ConversationInboxEntry e WHERE e.conversationId = :conversationId AND e.userId = :userId")
+    void deleteEntry(@Param("conversationId") String conversationId, @Param("userId") String userId);
+
+    @Modifying
+    @Query("DELETE FROM ConversationInboxEntry e WHERE e.conversationId = :conversationId")
+    void deleteByConversation(@Param("conversationId") String conversationId);
+
+    // Create rows for memberships that predate the inbox table
+    @Modifying
+    @Query(value = "INSERT INTO conversation_inbox (user_id, conversation_id, conversation_type, peer_user_id, " +
+            "last_message_at, last_message_preview, unread_count, created_at) " +
+            "SELECT cp.user_id, c.id, c.type, " +
+            "CASE WHEN c.type = 'DIRECT' THEN (SELECT MIN(o.user_id) FROM conversation_participants o " +
+            "WHERE o.conversation_id = c.id AND o.user_id <> cp.user_id) END, " +
+            "c.last_message_at, c.last_message, 0, c.created_at " +
+            "FROM conversation_participants cp JOIN conversations c ON c.id = cp.conversation_id " +
+            "WHERE NOT EXISTS (SELECT 1 FROM conversation_inbox i " +
+            "WHERE i.user_id = cp.user_id AND i.conversation_id = c.id)", nativeQuery = true)
+    int backfillMissingEntries();
+}
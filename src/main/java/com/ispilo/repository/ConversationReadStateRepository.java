@@ -0,0 +1,39 @@
+package com.ispilo.repository;
+
+import com.ispilo.model.entity.ConversationReadState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ConversationReadStateRepository extends JpaRepository<ConversationReadState, Long> {
+
+    List<ConversationReadState> findByConversationId(String conversationId);
+
+    List<ConversationReadState> findByConversationIdIn(Collection<String> conversationIds);
+
+    @Query("SELECT rs FROM ConversationReadState rs WHERE rs.conversationId IN :conversationIds AND rs.updatedAt > :since")
+    List<ConversationReadState> findUpdatedSince(@Param("conversationIds") Collection<String> conversationIds,
+                                                 @Param("since") LocalDateTime since);
+
+    // Single-row upsert; the watermark only moves forward and updated_at only changes when it does
+    @Modifying
+    // Read implies delivered, so the delivery watermark follows along
+    @Query(value = "INSERT INTO conversation_read_states (conversation_id, user_id, last_read_seq, last_delivered_seq, last_read_at, updated_at) " +
+            "VALUES (:conversationId, :userId, :seq, :seq, :now, :now) " +
+            "ON DUPLICATE KEY UPDATE " +
+            "updated_at = CASE WHEN :seq > last_read_seq THEN :now ELSE updated_at END, " +
+            "last_read_at = CASE WHEN :seq > last_read_seq THEN :now ELSE last_read_at END, " +
+            "last_delivered_seq = GREATEST(last_delivered_seq, :seq), " +
+            "last_read_seq = GREATEST(last_read_seq, :seq)", nativeQuery = true)
+    void advanceReadSeq(@Param("conversationId") String conversationId,
+                        @Param("userId") String userId,
+                        @Param("seq") long seq,
+                        @Param("now") LocalDateTime now);
+}
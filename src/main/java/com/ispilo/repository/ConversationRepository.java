@@ -4,12 +4,18 @@ import com.ispilo.model.entity.Conversation;
 import com.ispilo.model.entity.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ConversationRepository extends JpaRepository<Conversation, String> {
@@ -17,6 +23,71 @@ public interface ConversationRepository extends JpaRepository<Conversation, Stri
 
     Page<Conversation> findByParticipantsId(String userId, Pageable pageable);
 
-    @Query("SELECT c FROM Conversation c JOIN c.participants p1 JOIN c.participants p2 WHERE c.type = com.ispilo.model.enums.ConversationType.DIRECT AND p1.id = :userId1 AND p2.id = :userId2")
-    Conversation findDirectConversationBetweenUsers(@Param("userId1") String userId1, @Param("userId2") String userId2);
+    // Point lookup on the unique canonical pair key
+    Optional<Conversation> findByDirectKey(String directKey);
+
+    // Keys DIRECT conversations written before direct_key existed; on duplicate pairs one row keeps the key
+    @Modifying
+    @Query(value = "UPDATE IGNORE conversations c JOIN (" +
+            "SELECT cp.conversation_id, SHA2(CONCAT(MIN(CAST(cp.user_id AS BINARY)), ':', MAX(CAST(cp.user_id AS BINARY))), 256) AS pair_key " +
+            "FROM conversation_participants cp JOIN conversations d ON d.id = cp.conversation_id " +
+            "WHERE d.type = 'DIRECT' AND d.direct_key IS NULL " +
+            "GROUP BY cp.conversation_id HAVING COUNT(*) = 2) k ON k.conversation_id = c.id " +
+            "SET c.direct_key = k.pair_key", nativeQuery = true)
+    int backfillDirectKeys();
+
+    // Row lock used to hand out the next sequence number
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM Conversation c WHERE c.id = :id")
+    Optional<Conversation> findByIdForUpdate(@Param("id") String id);
+
+    @Query("SELECT c.lastSeq FROM Conversation c WHERE c.id = :id")
+    Optional<Long> findLastSeq(@Param("id") String id);
+
+    // Highest sequence number in use; in write-ahead log mode rows can be stored past last_seq
+    @Query(value = "SELECT GREATEST(c.last_seq, " +
+            "COALESCE((SELECT MAX(m.seq) FROM messages m WHERE m.conversation_id = c.id), 0), " +
+            "COALESCE((SELECT MAX(m.deleted_seq) FROM messages m WHERE m.conversation_id = c.id), 0)) " +
+            "FROM conversations c WHERE c.id = :id", nativeQuery = true)
+    Optional<Long> findHighestSeq(@Param("id") String id);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE conversations SET last_seq = GREATEST(last_seq, :seq) WHERE id = :id", nativeQuery = true)
+    int advanceLastSeq(@Param("id") String id, @Param("seq") long seq);
+
+    @Query("SELECT c.encryptionKey FROM Conversation c WHERE c.id = :id")
+    Optional<String> findEncryptionKey(@Param("id") String id);
+
+    // Sets the key only if none exists yet, so concurrent first sends agree on one key
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE conversations SET encryption_key = :key WHERE id = :id AND encryption_key IS NULL", nativeQuery = true)
+    int initEncryptionKey(@Param("id") String id, @Param("key") String key);
+
+    @Modifying
+    @Query(value = "UPDATE conversations SET archived_until = GREATEST(COALESCE(archived_until, :archivedUntil), :archivedUntil) " +
+            "WHERE id = :id", nativeQuery = true)
+    void advanceArchivedUntil(@Param("id") String id, @Param("archivedUntil") LocalDateTime archivedUntil);
+
+    @Query(value = "SELECT c.id AS conversationId, c.last_seq AS lastSeq FROM conversations c " +
+            "JOIN conversation_participants cp ON cp.conversation_id = c.id WHERE cp.user_id = :userId",
+            nativeQuery = true)
+    List<ConversationSeqView> findSeqStatesByParticipant(@Param("userId") String userId);
+
+    interface ConversationSeqView {
+        String getConversationId();
+
+        Long getLastSeq();
+    }
+
+    // Everyone sharing at least one conversation with the user
+    @Query(value = "SELECT DISTINCT cp2.user_id FROM conversation_participants cp1 " +
+            "JOIN conversation_participants cp2 ON cp2.conversation_id = cp1.conversation_id " +
+            "WHERE cp1.user_id = :userId AND cp2.user_id <> :userId", nativeQuery = true)
+    List<String> findPartnerIds(@Param("userId") String userId);
+
+    // Id-only read of the join table; backs ConversationMembershipCache
+    @Query(value = "SELECT user_id FROM conversation_participants WHERE conversation_id = :conversationId", nativeQuery = true)
+    List<String> findParticipantIds(@Param("conversationId") String conversationId);
 }
@@ -0,0 +1,26 @@
+package com.ispilo.repository;
+
+import com.ispilo.model.entity.MessageArchiveSegment;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface MessageArchiveSegmentRepository extends JpaRepository<MessageArchiveSegment, Long> {
+
+    // Segment ids only; payloads are loaded one segment at a time through the decode cache
+    @Query("SELECT s.id FROM MessageArchiveSegment s WHERE s.conversationId = :conversationId " +
+            "AND s.firstCreatedAt <= :createdAt ORDER BY s.lastCreatedAt DESC")
+    List<Long> findIdsStartingAtOrBefore(@Param("conversationId") String conversationId,
+                                         @Param("createdAt") LocalDateTime createdAt, Limit limit);
+
+    @Query("SELECT s.id FROM MessageArchiveSegment s WHERE s.conversationId = :conversationId " +
+            "AND s.lastCreatedAt >= :createdAt ORDER BY s.lastCreatedAt ASC")
+    List<Long> findIdsEndingAtOrAfter(@Param("conversationId") String conversationId,
+                                      @Param("createdAt") LocalDateTime createdAt, Limit limit);
+}
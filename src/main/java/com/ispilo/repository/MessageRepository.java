@@ -1,13 +1,17 @@
 package com.ispilo.repository;
 
 import com.ispilo.model.entity.Message;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -22,9 +26,69 @@ public interface MessageRepository extends JpaRepository<Message, String> {
 
     long countByConversationIdAndIsReadFalse(String conversationId);
 
-    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId AND m.isRead = false AND m.sender.id != :userId")
-    List<Message> findUnreadMessagesByConversationAndNotSender(
-            @Param("conversationId") String conversationId,
-            @Param("userId") String userId
-    );
+    // Keyset history queries on (conversation_id, created_at, id); List results never issue a count query
+
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender WHERE m.conversation.id = :conversationId " +
+            "AND m.isDeleted = false ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findLatest(@Param("conversationId") String conversationId, Limit limit);
+
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender WHERE m.conversation.id = :conversationId " +
+            "AND (m.createdAt < :createdAt OR (m.createdAt = :createdAt AND m.id < :id)) AND m.isDeleted = false " +
+            "ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findBefore(@Param("conversationId") String conversationId,
+                             @Param("createdAt") LocalDateTime createdAt,
+                             @Param("id") String id,
+                             Limit limit);
+
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender WHERE m.conversation.id = :conversationId " +
+            "AND (m.createdAt > :createdAt OR (m.createdAt = :createdAt AND m.id > :id)) AND m.isDeleted = false " +
+            "ORDER BY m.createdAt ASC, m.id ASC")
+    List<Message> findAfter(@Param("conversationId") String conversationId,
+                            @Param("createdAt") LocalDateTime createdAt,
+                            @Param("id") String id,
+                            Limit limit);
+
+    // Legacy offset paging without a count query
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender WHERE m.conversation.id = :conversationId " +
+            "AND m.isDeleted = false ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findPageWithoutCount(@Param("conversationId") String conversationId, Pageable pageable);
+
+    // Delta sync on (conversation_id, seq) and (conversation_id, deleted_seq)
+
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender WHERE m.conversation.id = :conversationId " +
+            "AND m.seq > :sinceSeq AND m.isDeleted = false ORDER BY m.seq ASC")
+    List<Message> findSinceSeq(@Param("conversationId") String conversationId,
+                               @Param("sinceSeq") long sinceSeq,
+                               Limit limit);
+
+    @Query("SELECT m.id FROM Message m WHERE m.conversation.id = :conversationId AND m.deletedSeq > :sinceSeq")
+    List<String> findIdsDeletedSinceSeq(@Param("conversationId") String conversationId,
+                                        @Param("sinceSeq") long sinceSeq);
+
+    // Archival on idx_created_at and (conversation_id, created_at, id)
+
+    @Query(value = "SELECT DISTINCT conversation_id FROM messages WHERE created_at < :cutoff LIMIT :limit", nativeQuery = true)
+    List<String> findConversationIdsWithMessagesBefore(@Param("cutoff") LocalDateTime cutoff, @Param("limit") int limit);
+
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId AND m.createdAt < :cutoff " +
+            "ORDER BY m.createdAt ASC, m.id ASC")
+    List<Message> findOldestBefore(@Param("conversationId") String conversationId,
+                                   @Param("cutoff") LocalDateTime cutoff,
+                                   Limit limit);
+
+    // Rows stored before sequence numbers existed are outside every watermark and keep a per-row flag
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE messages SET is_read = TRUE " +
+            "WHERE conversation_id = :conversationId AND seq IS NULL AND sender_id <> :userId AND is_read = FALSE",
+            nativeQuery = true)
+    int markLegacyMessagesRead(@Param("conversationId") String conversationId, @Param("userId") String userId);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE messages SET thumbnail_url = :thumbnailUrl, preview_url = :previewUrl " +
+            "WHERE id = :id AND is_deleted = FALSE", nativeQuery = true)
+    int attachMediaVariants(@Param("id") String id,
+                            @Param("thumbnailUrl") String thumbnailUrl,
+                            @Param("previewUrl") String previewUrl);
 }
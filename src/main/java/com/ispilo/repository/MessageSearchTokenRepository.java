@@ -0,0 +1,50 @@
+package com.ispilo.repository;
+
+import com.ispilo.model.entity.MessageSearchToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface MessageSearchTokenRepository extends JpaRepository<MessageSearchToken, Long> {
+
+    // Messages carrying every token, newest first; served by (conversation_id, token, created_at).
+    // All tokens of a message carry its created_at, so MAX(created_at) is the message's time.
+    @Query(value = "SELECT message_id AS messageId, MAX(created_at) AS createdAt FROM message_search_tokens " +
+            "WHERE conversation_id = :conversationId AND token IN (:tokens) " +
+            "GROUP BY message_id HAVING COUNT(*) = :tokenCount " +
+            "ORDER BY MAX(created_at) DESC, message_id DESC LIMIT :limit", nativeQuery = true)
+    List<SearchHitView> findMessagesMatchingAll(@Param("conversationId") String conversationId,
+                                                @Param("tokens") Collection<String> tokens,
+                                                @Param("tokenCount") int tokenCount,
+                                                @Param("limit") int limit);
+
+    // The page after the keyset anchor (beforeAt, beforeId); the created_at bound keeps the index range
+    @Query(value = "SELECT message_id AS messageId, MAX(created_at) AS createdAt FROM message_search_tokens " +
+            "WHERE conversation_id = :conversationId AND token IN (:tokens) AND created_at <= :beforeAt " +
+            "AND (created_at < :beforeAt OR message_id < :beforeId) " +
+            "GROUP BY message_id HAVING COUNT(*) = :tokenCount " +
+            "ORDER BY MAX(created_at) DESC, message_id DESC LIMIT :limit", nativeQuery = true)
+    List<SearchHitView> findMessagesMatchingAllBefore(@Param("conversationId") String conversationId,
+                                                      @Param("tokens") Collection<String> tokens,
+                                                      @Param("tokenCount") int tokenCount,
+                                                      @Param("beforeAt") LocalDateTime beforeAt,
+                                                      @Param("beforeId") String beforeId,
+                                                      @Param("limit") int limit);
+
+    interface SearchHitView {
+        String getMessageId();
+
+        LocalDateTime getCreatedAt();
+    }
+
+    @Modifying
+    @Query(value = "DELETE FROM message_search_tokens WHERE message_id IN (:messageIds)", nativeQuery = true)
+    int deleteByMessageIds(@Param("messageIds") Collection<String> messageIds);
+}
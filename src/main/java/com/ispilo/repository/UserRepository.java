@@ -4,10 +4,13 @@ import com.ispilo.model.entity.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -29,4 +32,18 @@ public interface UserRepository extends JpaRepository<User, String> {
     // Native query using named parameters is also safe, but we should be careful with LIKE clauses
     @Query(value = "SELECT name FROM users WHERE LOWER(name) LIKE LOWER(CONCAT('%', :query, '%')) LIMIT :limit", nativeQuery = true)
     List<String> findTypeaheadSuggestions(@Param("query") String query, @Param("limit") int limit);
+
+    @Query("SELECT u.id AS userId, u.lastSeenAt AS lastSeenAt FROM User u WHERE u.id IN :ids")
+    List<LastSeenView> findLastSeen(@Param("ids") Collection<String> ids);
+
+    interface LastSeenView {
+        String getUserId();
+
+        LocalDateTime getLastSeenAt();
+    }
+
+    @Modifying
+    @Query(value = "UPDATE users SET last_seen_at = GREATEST(COALESCE(last_seen_at, :lastSeenAt), :lastSeenAt) " +
+            "WHERE id = :id", nativeQuery = true)
+    void advanceLastSeen(@Param("id") String id, @Param("lastSeenAt") LocalDateTime lastSeenAt);
 }
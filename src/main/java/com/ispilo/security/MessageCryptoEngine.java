@@ -0,0 +1,330 @@
+package com.ispilo.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ConcurrentLruCache;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Message crypto engine for conversation keys.
+ * - Decoded AES keys are held in a bounded LRU keyed by the stored Base64 key
+ * - Cipher instances, IV source and scratch buffers are reused per thread
+ * - New messages use AES-256-GCM, written as "g1:" + Base64(IV + ciphertext + tag)
+ * - Values without the prefix are legacy AES (ECB/PKCS5) and still decrypt
+ *
+ * Nothing is logged per call; callers decide how to report failures.
+ */
+@Component
+public class MessageCryptoEngine {
+
+    static final String GCM_PREFIX = "g1:";
+
+    private static final String AES_ALGORITHM = "AES";
+    private static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String LEGACY_TRANSFORMATION = "AES";
+    private static final int GCM_IV_LENGTH = 12; // 96 bits
+    private static final int GCM_TAG_LENGTH = 16; // 128 bits
+    private static final int AES_BLOCK_SIZE = 16;
+
+    private static final byte[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        for (int i = 0; i < BASE64_ALPHABET.length; i++) {
+            BASE64_VALUES[BASE64_ALPHABET[i]] = i;
+        }
+    }
+
+    private final ConcurrentLruCache<String, SecretKeySpec> keyCache;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    public MessageCryptoEngine(@Value("${app.chat.crypto.key-cache-size:4096}") int keyCacheSize) {
+        this.keyCache = new ConcurrentLruCache<>(keyCacheSize,
+                keyString -> new SecretKeySpec(Base64.getDecoder().decode(keyString), AES_ALGORITHM));
+    }
+
+    /**
+     * Encrypt with AES-256-GCM using a fresh random IV
+     */
+    public String encrypt(String plainText, String conversationKey) {
+        SecretKeySpec key = keyCache.get(conversationKey);
+        Worker worker = workers.get();
+        try {
+            int plainLength = worker.encodeUtf8(plainText);
+            worker.random.nextBytes(worker.iv);
+
+            Cipher cipher = worker.gcm();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH * 8, worker.iv));
+
+            byte[] raw = worker.raw(GCM_IV_LENGTH + plainLength + GCM_TAG_LENGTH);
+            System.arraycopy(worker.iv, 0, raw, 0, GCM_IV_LENGTH);
+            int rawLength = GCM_IV_LENGTH + cipher.doFinal(worker.plain, 0, plainLength, raw, GCM_IV_LENGTH);
+
+            return worker.toBase64(raw, rawLength, GCM_PREFIX);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to encrypt message", e);
+        }
+    }
+
+    /**
+     * Length of the value {@link #encrypt} returns for this plaintext, without encrypting
+     */
+    public static int encryptedLength(String plainText) {
+        int rawLength = GCM_IV_LENGTH + utf8Length(plainText) + GCM_TAG_LENGTH;
+        return GCM_PREFIX.length() + 4 * ((rawLength + 2) / 3);
+    }
+
+    /**
+     * Decrypt either a GCM value written by {@link #encrypt} or a legacy AES value
+     */
+    public String decrypt(String cipherText, String conversationKey) {
+        if (!cipherText.startsWith(GCM_PREFIX)) {
+            return decryptLegacy(cipherText, conversationKey);
+        }
+
+        SecretKeySpec key = keyCache.get(conversationKey);
+        Worker worker = workers.get();
+        try {
+            int rawLength = worker.fromBase64(cipherText, GCM_PREFIX.length());
+            if (rawLength < GCM_IV_LENGTH + GCM_TAG_LENGTH) {
+                throw new IllegalArgumentException("Ciphertext too short");
+            }
+            byte[] raw = worker.raw;
+
+            Cipher cipher = worker.gcm();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH * 8, raw, 0, GCM_IV_LENGTH));
+            byte[] plain = worker.plain(rawLength);
+            int plainLength = cipher.doFinal(raw, GCM_IV_LENGTH, rawLength - GCM_IV_LENGTH, plain, 0);
+
+            return new String(plain, 0, plainLength, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to decrypt message", e);
+        }
+    }
+
+    /**
+     * Encrypt with the legacy AES transformation (ECB/PKCS5), unprefixed Base64 output
+     */
+    public String encryptLegacy(String plainText, String conversationKey) {
+        SecretKeySpec key = keyCache.get(conversationKey);
+        Worker worker = workers.get();
+        try {
+            int plainLength = worker.encodeUtf8(plainText);
+
+            Cipher cipher = worker.legacy();
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+            byte[] raw = worker.raw(plainLength + AES_BLOCK_SIZE);
+            int rawLength = cipher.doFinal(worker.plain, 0, plainLength, raw, 0);
+
+            return worker.toBase64(raw, rawLength, "");
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to encrypt with AES", e);
+        }
+    }
+
+    public String decryptLegacy(String cipherText, String conversationKey) {
+        SecretKeySpec key = keyCache.get(conversationKey);
+        Worker worker = workers.get();
+        try {
+            int rawLength = worker.fromBase64(cipherText, 0);
+
+            Cipher cipher = worker.legacy();
+            cipher.init(Cipher.DECRYPT_MODE, key);
+            byte[] plain = worker.plain(rawLength);
+            int plainLength = cipher.doFinal(worker.raw, 0, rawLength, plain, 0);
+
+            return new String(plain, 0, plainLength, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to decrypt with AES", e);
+        }
+    }
+
+    /**
+     * Bytes Worker.encodeUtf8 writes for the value
+     */
+    private static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Per-thread cipher instances and growable scratch buffers.
+     * Only the returned String is allocated on the steady-state path.
+     */
+    private static final class Worker {
+
+        private final SecureRandom random = new SecureRandom();
+        private final byte[] iv = new byte[GCM_IV_LENGTH];
+        private Cipher gcm;
+        private Cipher legacy;
+        private byte[] plain = new byte[1024];
+        private byte[] raw = new byte[1024];
+        private byte[] text = new byte[2048];
+
+        Cipher gcm() throws GeneralSecurityException {
+            if (gcm == null) {
+                gcm = Cipher.getInstance(GCM_TRANSFORMATION);
+            }
+            return gcm;
+        }
+
+        Cipher legacy() throws GeneralSecurityException {
+            if (legacy == null) {
+                legacy = Cipher.getInstance(LEGACY_TRANSFORMATION);
+            }
+            return legacy;
+        }
+
+        byte[] plain(int capacity) {
+            if (plain.length < capacity) {
+                plain = new byte[capacity];
+            }
+            return plain;
+        }
+
+        byte[] raw(int capacity) {
+            if (raw.length < capacity) {
+                raw = new byte[capacity];
+            }
+            return raw;
+        }
+
+        byte[] text(int capacity) {
+            if (text.length < capacity) {
+                text = new byte[capacity];
+            }
+            return text;
+        }
+
+        /**
+         * UTF-8 encode into the plain buffer, returns the encoded length
+         */
+        int encodeUtf8(String value) {
+            int length = value.length();
+            byte[] out = plain(length * 3);
+            int position = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    out[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    out[position++] = (byte) (0xC0 | (c >> 6));
+                    out[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    out[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    out[position++] = '?'; // unpaired surrogate, same as String.getBytes
+                } else {
+                    out[position++] = (byte) (0xE0 | (c >> 12));
+                    out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    out[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return position;
+        }
+
+        /**
+         * Standard padded Base64 of src[0, length) behind an ASCII prefix
+         */
+        String toBase64(byte[] src, int length, String prefix) {
+            int prefixLength = prefix.length();
+            int total = prefixLength + 4 * ((length + 2) / 3);
+            byte[] out = text(total);
+            for (int i = 0; i < prefixLength; i++) {
+                out[i] = (byte) prefix.charAt(i);
+            }
+
+            int position = prefixLength;
+            int i = 0;
+            for (int end = length - length % 3; i < end; i += 3) {
+                int bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF);
+                out[position++] = BASE64_ALPHABET[bits >>> 18];
+                out[position++] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+                out[position++] = BASE64_ALPHABET[(bits >>> 6) & 0x3F];
+                out[position++] = BASE64_ALPHABET[bits & 0x3F];
+            }
+            int remaining = length - i;
+            if (remaining > 0) {
+                int bits = (src[i] & 0xFF) << 16 | (remaining == 2 ? (src[i + 1] & 0xFF) << 8 : 0);
+                out[position++] = BASE64_ALPHABET[bits >>> 18];
+                out[position++] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+                out[position++] = remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3F] : (byte) '=';
+                out[position++] = '=';
+            }
+            return new String(out, 0, position, StandardCharsets.ISO_8859_1);
+        }
+
+        /**
+         * Decode padded Base64 starting at offset into the raw buffer, returns the decoded length
+         */
+        int fromBase64(String value, int offset) {
+            int end = value.length();
+            while (end > offset && value.charAt(end - 1) == '=') {
+                end--;
+            }
+            int chars = end - offset;
+            if (chars % 4 == 1 || value.length() - end > 2) {
+                throw new IllegalArgumentException("Invalid Base64 length");
+            }
+            byte[] out = raw(chars * 3 / 4);
+
+            int position = 0;
+            int bits = 0;
+            int count = 0;
+            for (int i = offset; i < end; i++) {
+                char c = value.charAt(i);
+                int v = c < 128 ? BASE64_VALUES[c] : -1;
+                if (v < 0) {
+                    throw new IllegalArgumentException("Illegal Base64 character at " + i);
+                }
+                bits = bits << 6 | v;
+                if (++count == 4) {
+                    out[position++] = (byte) (bits >> 16);
+                    out[position++] = (byte) (bits >> 8);
+                    out[position++] = (byte) bits;
+                    bits = 0;
+                    count = 0;
+                }
+            }
+            if (count == 3) {
+                out[position++] = (byte) (bits >> 10);
+                out[position++] = (byte) (bits >> 2);
+            } else if (count == 2) {
+                out[position++] = (byte) (bits >> 4);
+            }
+            return position;
+        }
+    }
+}
@@ -7,7 +7,6 @@ import org.springframework.stereotype.Service;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
 import java.security.*;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
@@ -32,6 +31,8 @@ public class SecurityEncryptionService {
 
     private static final String HASH_ALGORITHM = "SHA-256";
 
+    private final MessageCryptoEngine messageCryptoEngine;
+
     /**
      * Generate RSA key pair (4096-bit)
      * Server keeps private key, sends public key to app
@@ -105,20 +106,12 @@ public class SecurityEncryptionService {
 
     /**
      * Encrypt message using AES-256
-     * Symmetric encryption for faster processing of large data
+     * Symmetric encryption for faster processing of large data.
+     * Keys and ciphers are cached by {@link MessageCryptoEngine}.
      */
     public String encryptWithAES(String data, String aesKeyString) {
         try {
-            byte[] decodedKey = Base64.getDecoder().decode(aesKeyString);
-            // Correct constructor for SecretKeySpec
-            SecretKey originalKey = new SecretKeySpec(decodedKey, AES_ALGORITHM);
-
-            Cipher cipher = Cipher.getInstance(AES_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, originalKey);
-            byte[] encryptedData = cipher.doFinal(data.getBytes());
-            String encrypted = Base64.getEncoder().encodeToString(encryptedData);
-            log.debug("Data encrypted with AES-256");
-            return encrypted;
+            return messageCryptoEngine.encryptLegacy(data, aesKeyString);
         } catch (Exception e) {
             log.error("Error encrypting with AES", e);
             throw new RuntimeException("Failed to encrypt with AES", e);
@@ -130,17 +123,7 @@ public class SecurityEncryptionService {
      */
     public String decryptWithAES(String encryptedData, String aesKeyString) {
         try {
-            byte[] decodedKey = Base64.getDecoder().decode(aesKeyString);
-            // Correct constructor for SecretKeySpec
-            SecretKey originalKey = new SecretKeySpec(decodedKey, AES_ALGORITHM);
-
-            Cipher cipher = Cipher.getInstance(AES_ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, originalKey);
-            byte[] decodedData = Base64.getDecoder().decode(encryptedData);
-            byte[] decryptedData = cipher.doFinal(decodedData);
-            String decrypted = new String(decryptedData);
-            log.debug("Data decrypted with AES-256");
-            return decrypted;
+            return messageCryptoEngine.decryptLegacy(encryptedData, aesKeyString);
         } catch (Exception e) {
             log.error("Error decrypting with AES", e);
             throw new RuntimeException("Failed to decrypt with AES", e);
@@ -1,5 +1,6 @@
 package com.ispilo.security;
 
+import com.ispilo.service.SessionResumeService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.Message;
@@ -9,6 +10,7 @@ import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.support.MessageHeaderAccessor;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
@@ -20,12 +22,23 @@ public class WebSocketAuthInterceptor implements ChannelInterceptor {
 
     private final JwtUtil jwtUtil;
     private final UserDetailsServiceImpl userDetailsService;
+    private final SessionResumeService sessionResumeService;
 
     @Override
     public Message<?> preSend(Message<?> message, MessageChannel channel) {
         StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
 
         if (accessor != null && StompCommand.CONNECT.equals(accessor.getCommand())) {
+            // A reconnect within the resume window skips the JWT and user lookups
+            String resumeToken = accessor.getFirstNativeHeader(SessionResumeService.RESUME_TOKEN_HEADER);
+            Authentication resumed = resumeToken != null
+                    ? sessionResumeService.resume(resumeToken, accessor.getSessionId()) : null;
+            if (resumed != null) {
+                SecurityContextHolder.getContext().setAuthentication(resumed);
+                accessor.setUser(resumed);
+                return message;
+            }
+
             String authToken = accessor.getFirstNativeHeader("Authorization");
 
             if (authToken != null && authToken.startsWith("Bearer ")) {
@@ -37,12 +50,12 @@ public class WebSocketAuthInterceptor implements ChannelInterceptor {
 
                     if (jwtUtil.isTokenValid(token, userDetails)) {
                         UsernamePasswordAuthenticationToken authentication =
-                            new UsernamePasswordAuthenticationToken(
-                                userDetails, null, userDetails.getAuthorities()
-                            );
+                            new StompAuthenticationToken(userDetails);
 
                         SecurityContextHolder.getContext().setAuthentication(authentication);
                         accessor.setUser(authentication);
+                        sessionResumeService.open(accessor.getSessionId(), authentication,
+                                jwtUtil.extractExpiration(token).getTime());
 
                         log.debug("WebSocket connection authenticated for user: {}", email);
                     }
@@ -54,4 +67,20 @@ public class WebSocketAuthInterceptor implements ChannelInterceptor {
 
         return message;
     }
+
+    /**
+     * Names the STOMP principal by user id, which is what /user destinations are
+     * addressed by. The default name would be the email from UserDetails.
+     */
+    static class StompAuthenticationToken extends UsernamePasswordAuthenticationToken {
+
+        StompAuthenticationToken(UserDetails userDetails) {
+            super(userDetails, null, userDetails.getAuthorities());
+        }
+
+        @Override
+        public String getName() {
+            return getPrincipal() instanceof UserPrincipal principal ? principal.getId() : super.getName();
+        }
+    }
 }
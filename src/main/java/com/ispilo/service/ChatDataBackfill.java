@@ -0,0 +1,61 @@
+package com.ispilo.service;
+
+import com.ispilo.repository.ConversationInboxRepository;
+import com.ispilo.repository.ConversationRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Fills derived chat tables for data written before they existed.
+ * Each step is idempotent, so it is safe to run on every start, and runs in its own
+ * transaction: a failing step is logged and rolled back without affecting the others
+ * or the application start.
+ */
+@Component
+@Slf4j
+public class ChatDataBackfill implements ApplicationRunner {
+
+    private final ConversationInboxRepository inboxRepository;
+    private final ConversationRepository conversationRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${app.chat.backfill-on-startup:true}")
+    private boolean enabled;
+
+    public ChatDataBackfill(ConversationInboxRepository inboxRepository,
+                            ConversationRepository conversationRepository,
+                            PlatformTransactionManager transactionManager) {
+        this.inboxRepository = inboxRepository;
+        this.conversationRepository = conversationRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        step("conversation inbox entries", inboxRepository::backfillMissingEntries);
+        step("direct conversation keys", conversationRepository::backfillDirectKeys);
+    }
+
+    private void step(String name, IntSupplier backfill) {
+        try {
+            Integer rows = transactionTemplate.execute(status -> backfill.getAsInt());
+            if (rows != null && rows > 0) {
+                log.info("Backfilled {} {}", rows, name);
+            }
+        } catch (RuntimeException e) {
+            log.error("Backfill of {} failed", name, e);
+        }
+    }
+}
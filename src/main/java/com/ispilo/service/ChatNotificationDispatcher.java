@@ -0,0 +1,106 @@
+package com.ispilo.service;
+
+import com.ispilo.model.enums.ConversationType;
+import com.ispilo.model.event.MessageSentEvent;
+import com.ispilo.model.event.MessagesReadEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pushes message and read events to participants once the transaction that produced
+ * them has committed, so no broker send happens while conversation rows are locked and
+ * nobody hears about a rolled-back message. Sends run on chatFanoutExecutor; events of
+ * one conversation are chained so they go out in commit order.
+ */
+@Component
+@Slf4j
+public class ChatNotificationDispatcher {
+
+    private record ReadStatusNotification(String conversationId, String userId, long lastReadSeq) {}
+
+    // conversationId -> last queued dispatch, removed once it has run
+    private final Map<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    private final ConversationMembershipCache membershipCache;
+    private final SessionResumeService sessionResumeService;
+    private final ThreadPoolTaskExecutor fanoutExecutor;
+    // Created by the broker configuration
+    private final ObjectProvider<SimpMessagingTemplate> messagingTemplate;
+
+    public ChatNotificationDispatcher(ConversationMembershipCache membershipCache,
+                                      SessionResumeService sessionResumeService,
+                                      @Qualifier("chatFanoutExecutor") ThreadPoolTaskExecutor fanoutExecutor,
+                                      ObjectProvider<SimpMessagingTemplate> messagingTemplate) {
+        this.membershipCache = membershipCache;
+        this.sessionResumeService = sessionResumeService;
+        this.fanoutExecutor = fanoutExecutor;
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    // fallbackExecution: write-ahead log sends publish outside a transaction
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onMessageSent(MessageSentEvent event) {
+        dispatch(event.conversationId(), () -> notifyParticipants(event));
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onMessagesRead(MessagesReadEvent event) {
+        dispatch(event.conversationId(), () -> notifyReadStatus(event));
+    }
+
+    /**
+     * GROUP messages are published once to the conversation topic, whose subscriptions
+     * are limited to members by ConversationTopicAuthorizer; the sender's own devices
+     * receive it too and match it by clientMsgId. DIRECT messages go to the peer's queue.
+     * Each event is also kept for session resumption, once per topic or per recipient.
+     */
+    private void notifyParticipants(MessageSentEvent event) {
+        SimpMessagingTemplate template = messagingTemplate.getObject();
+        if (event.conversationType() == ConversationType.GROUP) {
+            String topic = ConversationTopicAuthorizer.topicFor(event.conversationId());
+            sessionResumeService.recordTopic(event.conversationId(), topic, event.message());
+            template.convertAndSend(topic, event.message());
+            return;
+        }
+        for (String participantId : membershipCache.getParticipantIds(event.conversationId())) {
+            if (!participantId.equals(event.senderId())) {
+                sessionResumeService.record(participantId, "/user/queue/messages", event.message());
+                template.convertAndSendToUser(participantId, "/queue/messages", event.message());
+            }
+        }
+    }
+
+    private void notifyReadStatus(MessagesReadEvent event) {
+        ReadStatusNotification notification =
+                new ReadStatusNotification(event.conversationId(), event.userId(), event.lastReadSeq());
+        for (String participantId : membershipCache.getParticipantIds(event.conversationId())) {
+            if (!participantId.equals(event.userId())) {
+                sessionResumeService.record(participantId, "/user/queue/read-status", notification);
+                messagingTemplate.getObject().convertAndSendToUser(participantId, "/queue/read-status", notification);
+            }
+        }
+    }
+
+    private void dispatch(String conversationId, Runnable send) {
+        Runnable task = () -> {
+            try {
+                send.run();
+            } catch (RuntimeException e) {
+                log.warn("Failed to notify participants of conversation {}: {}", conversationId, e.getMessage());
+            }
+        };
+        CompletableFuture<Void> queued = tails.compute(conversationId, (id, tail) ->
+                tail == null ? CompletableFuture.runAsync(task, fanoutExecutor) : tail.thenRunAsync(task, fanoutExecutor));
+        queued.whenComplete((result, error) -> tails.remove(conversationId, queued));
+    }
+}
@@ -0,0 +1,255 @@
+package com.ispilo.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Background deletes for chat data, in bounded chunks.
+ * - Conversations marked deleted_at lose their search tokens, messages, archive segments,
+ *   read states and participants, then the conversation row itself
+ * - Retention: messages and archive segments older than the max age of their
+ *   conversation type (app.chat.retention.direct-max-age / group-max-age) are removed
+ *   conversation by conversation, walking idx_conversation_created_id from the oldest
+ *   message. Afterwards the conversation's last message preview and its inbox rows are
+ *   brought in line with what is left.
+ * Each chunk selects primary keys first and deletes exactly those rows in its own
+ * statement, so no delete scans or locks a large range. Chunks are separated by a pause
+ * and a run stops at max-chunks-per-run; what is left is picked up by the next run.
+ * Runs execute on chatMaintenanceExecutor; a trigger while a run is still going is skipped.
+ */
+@Component
+@ConditionalOnProperty(name = "app.chat.purge.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class ChatPurgeJob {
+
+    private static final String DELETED_CONVERSATIONS_SQL =
+            "SELECT id FROM conversations WHERE deleted_at IS NOT NULL ORDER BY deleted_at LIMIT ?";
+
+    // Children of a deleted conversation, in foreign key order
+    private static final List<String[]> CONVERSATION_CHILDREN = List.of(
+            new String[]{"message_search_tokens", "SELECT id FROM message_search_tokens WHERE conversation_id = ? LIMIT ?"},
+            new String[]{"messages", "SELECT id FROM messages WHERE conversation_id = ? LIMIT ?"},
+            new String[]{"message_archive_segments", "SELECT id FROM message_archive_segments WHERE conversation_id = ? LIMIT ?"},
+            new String[]{"conversation_read_states", "SELECT id FROM conversation_read_states WHERE conversation_id = ? LIMIT ?"},
+            new String[]{"conversation_inbox", "SELECT id FROM conversation_inbox WHERE conversation_id = ? LIMIT ?"});
+
+    // Conversations of a type holding anything past the cutoff, in id order from a cursor
+    private static final String EXPIRED_CONVERSATIONS_SQL =
+            "SELECT c.id FROM conversations c WHERE c.type = ? AND c.id > ? AND (" +
+            "EXISTS (SELECT 1 FROM messages m WHERE m.conversation_id = c.id AND m.created_at < ?) OR " +
+            "EXISTS (SELECT 1 FROM message_archive_segments s WHERE s.conversation_id = c.id AND s.last_created_at < ?)) " +
+            "ORDER BY c.id LIMIT ?";
+    private static final String EXPIRED_MESSAGES_SQL =
+            "SELECT id FROM messages WHERE conversation_id = ? AND created_at < ? ORDER BY created_at, id LIMIT ?";
+    private static final String EXPIRED_SEGMENTS_SQL =
+            "SELECT id FROM message_archive_segments WHERE conversation_id = ? AND last_created_at < ? LIMIT ?";
+
+    // The newest message is the last to expire, so a preview is stale only once all are gone
+    private static final String CLEAR_LAST_MESSAGE_SQL =
+            "UPDATE conversations SET last_message = NULL WHERE id = ? AND last_message_at < ?";
+    private static final String REFRESH_INBOX_SQL =
+            "UPDATE conversation_inbox i SET " +
+            "last_message_preview = CASE WHEN i.last_message_at < ? THEN NULL ELSE i.last_message_preview END, " +
+            "unread_count = (SELECT COUNT(*) FROM messages m WHERE m.conversation_id = i.conversation_id " +
+            "AND m.sender_id <> i.user_id AND m.is_deleted = false AND m.seq > COALESCE((" +
+            "SELECT r.last_read_seq FROM conversation_read_states r " +
+            "WHERE r.conversation_id = i.conversation_id AND r.user_id = i.user_id), 0)) " +
+            "WHERE i.conversation_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ThreadPoolTaskExecutor maintenanceExecutor;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final int chunkSize;
+    private final int maxChunksPerRun;
+    private final long pauseMillis;
+    // conversation type -> max message age
+    private final Map<String, Duration> retention;
+
+    // conversation type -> last conversation id fully expired; carries over between runs
+    private final Map<String, String> retentionCursors = new HashMap<>();
+
+    // Per run; runs never overlap
+    private int chunks;
+    private long rows;
+
+    public ChatPurgeJob(JdbcTemplate jdbcTemplate,
+                        @Qualifier("chatMaintenanceExecutor") ThreadPoolTaskExecutor maintenanceExecutor,
+                        @Value("${app.chat.purge.chunk-size:1000}") int chunkSize,
+                        @Value("${app.chat.purge.max-chunks-per-run:500}") int maxChunksPerRun,
+                        @Value("${app.chat.purge.pause-ms:50}") long pauseMillis,
+                        @Value("${app.chat.retention.direct-max-age:}") String directMaxAge,
+                        @Value("${app.chat.retention.group-max-age:}") String groupMaxAge) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.maintenanceExecutor = maintenanceExecutor;
+        this.chunkSize = chunkSize;
+        this.maxChunksPerRun = maxChunksPerRun;
+        this.pauseMillis = pauseMillis;
+        Map<String, Duration> policies = new LinkedHashMap<>();
+        if (!directMaxAge.isBlank()) {
+            policies.put("DIRECT", Duration.parse(directMaxAge));
+        }
+        if (!groupMaxAge.isBlank()) {
+            policies.put("GROUP", Duration.parse(groupMaxAge));
+        }
+        this.retention = Collections.unmodifiableMap(policies);
+    }
+
+    @Scheduled(fixedDelayString = "${app.chat.purge.interval-ms:60000}",
+            initialDelayString = "${app.chat.purge.initial-delay-ms:120000}")
+    public void schedulePurge() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            maintenanceExecutor.execute(() -> {
+                try {
+                    purge();
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            running.set(false);
+            log.warn("Chat purge run skipped: {}", e.getMessage());
+        }
+    }
+
+    public synchronized void purge() {
+        chunks = 0;
+        rows = 0;
+        try {
+            if (purgeDeletedConversations()) {
+                applyRetention();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Chat purge run failed after {} chunks", chunks, e);
+        }
+        if (rows > 0) {
+            log.info("Purged {} chat rows in {} chunks", rows, chunks);
+        }
+    }
+
+    /**
+     * Returns false when the run budget ran out; the rest continues next run
+     */
+    private boolean purgeDeletedConversations() throws InterruptedException {
+        List<String> conversationIds = jdbcTemplate.queryForList(DELETED_CONVERSATIONS_SQL, String.class, chunkSize);
+        for (String conversationId : conversationIds) {
+            for (String[] child : CONVERSATION_CHILDREN) {
+                if (!drain(child[0], child[1], conversationId)) {
+                    return false;
+                }
+            }
+            // Participants have no surrogate key; a conversation has few of them
+            rows += jdbcTemplate.update("DELETE FROM conversation_participants WHERE conversation_id = ?", conversationId);
+            rows += jdbcTemplate.update("DELETE FROM conversations WHERE id = ? AND deleted_at IS NOT NULL", conversationId);
+            log.debug("Purged conversation {}", conversationId);
+        }
+        return true;
+    }
+
+    private void applyRetention() throws InterruptedException {
+        for (Map.Entry<String, Duration> policy : retention.entrySet()) {
+            String type = policy.getKey();
+            Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minus(policy.getValue()));
+            while (budgetLeft()) {
+                List<String> conversationIds = jdbcTemplate.queryForList(EXPIRED_CONVERSATIONS_SQL, String.class,
+                        type, retentionCursors.getOrDefault(type, ""), cutoff, cutoff, chunkSize);
+                if (conversationIds.isEmpty()) {
+                    // Pass complete; the next run starts over from the first conversation
+                    retentionCursors.remove(type);
+                    break;
+                }
+                for (String conversationId : conversationIds) {
+                    if (!expireConversation(conversationId, cutoff)) {
+                        return;
+                    }
+                    retentionCursors.put(type, conversationId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns false when the run budget ran out; the conversation is visited again next run
+     */
+    private boolean expireConversation(String conversationId, Timestamp cutoff) throws InterruptedException {
+        boolean deleted = false;
+        while (budgetLeft()) {
+            List<String> ids = jdbcTemplate.queryForList(EXPIRED_MESSAGES_SQL, String.class,
+                    conversationId, cutoff, chunkSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            deleteIn("message_search_tokens", "message_id", ids);
+            deleteIn("messages", "id", ids);
+            deleted = true;
+            pause();
+        }
+        while (budgetLeft()) {
+            List<Long> ids = jdbcTemplate.queryForList(EXPIRED_SEGMENTS_SQL, Long.class,
+                    conversationId, cutoff, chunkSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            deleteIn("message_archive_segments", "id", ids);
+            pause();
+        }
+        if (deleted) {
+            jdbcTemplate.update(CLEAR_LAST_MESSAGE_SQL, conversationId, cutoff);
+            jdbcTemplate.update(REFRESH_INBOX_SQL, cutoff, conversationId);
+        }
+        return budgetLeft();
+    }
+
+    /**
+     * Delete all rows matching the id query chunk by chunk. Returns false when the run
+     * budget ran out before the rows were gone.
+     */
+    private boolean drain(String table, String idQuery, String conversationId) throws InterruptedException {
+        while (budgetLeft()) {
+            List<Object> ids = jdbcTemplate.queryForList(idQuery, Object.class, conversationId, chunkSize);
+            if (ids.isEmpty()) {
+                return true;
+            }
+            deleteIn(table, "id", ids);
+            pause();
+        }
+        return false;
+    }
+
+    private void deleteIn(String table, String column, List<?> ids) {
+        chunks++;
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        rows += jdbcTemplate.update("DELETE FROM " + table + " WHERE " + column + " IN (" + placeholders + ")", ids.toArray());
+    }
+
+    private boolean budgetLeft() {
+        return chunks < maxChunksPerRun;
+    }
+
+    private void pause() throws InterruptedException {
+        if (pauseMillis > 0) {
+            Thread.sleep(pauseMillis);
+        }
+    }
+}
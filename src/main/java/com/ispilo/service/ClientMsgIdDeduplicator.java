@@ -0,0 +1,143 @@
+package com.ispilo.service;
+
+import com.ispilo.util.BloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently seen client message ids, so the idempotency check only hits the
+ * database for probable duplicates.
+ * - Two rotating Bloom filter generations cover the last one to two windows
+ * - An exact LRU maps recent ids to their message ids
+ * - Optionally a Redis key per id (SET NX with TTL) covers ids sent through other nodes
+ *
+ * A miss everywhere means the id was not sent recently through this cluster; the
+ * unique index on client_msg_id still rejects anything that slips through.
+ */
+@Component
+@Slf4j
+public class ClientMsgIdDeduplicator {
+
+    private static final String REDIS_KEY_PREFIX = "chat:client-msg:";
+
+    private final long windowMillis;
+    private final long expectedPerWindow;
+    private final double falsePositiveRate;
+    private final Map<String, String> recent;
+    private final StringRedisTemplate redisTemplate;
+    private final Duration redisTtl;
+
+    private volatile BloomFilter current;
+    private volatile BloomFilter previous;
+    private volatile long currentStartedAt;
+
+    public ClientMsgIdDeduplicator(@Value("${app.chat.dedupe.window:PT10M}") Duration window,
+                                   @Value("${app.chat.dedupe.expected-per-window:100000}") long expectedPerWindow,
+                                   @Value("${app.chat.dedupe.false-positive-rate:0.01}") double falsePositiveRate,
+                                   @Value("${app.chat.dedupe.lru-size:10000}") int lruSize,
+                                   @Value("${app.chat.dedupe.redis-enabled:false}") boolean redisEnabled,
+                                   ObjectProvider<StringRedisTemplate> redisTemplate) {
+        this.windowMillis = window.toMillis();
+        this.expectedPerWindow = expectedPerWindow;
+        this.falsePositiveRate = falsePositiveRate;
+        this.recent = Collections.synchronizedMap(new LinkedHashMap<>(lruSize * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > lruSize;
+            }
+        });
+        this.redisTemplate = redisEnabled ? redisTemplate.getIfAvailable() : null;
+        // Twice the window so Redis remembers at least as long as the local filters
+        this.redisTtl = window.multipliedBy(2);
+        this.current = newFilter();
+        this.previous = newFilter();
+        this.currentStartedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Message id of a recent send with this client id, if this node still remembers it exactly
+     */
+    public String findRecentMessageId(String clientMsgId) {
+        return recent.get(clientMsgId);
+    }
+
+    /**
+     * False means the id has definitely not been recorded within the window
+     */
+    public boolean mightBeDuplicate(String clientMsgId) {
+        rotateIfDue();
+        if (recent.containsKey(clientMsgId) || current.mightContain(clientMsgId)
+                || previous.mightContain(clientMsgId)) {
+            return true;
+        }
+        if (redisTemplate == null) {
+            return false;
+        }
+        try {
+            return Boolean.TRUE.equals(redisTemplate.hasKey(REDIS_KEY_PREFIX + clientMsgId));
+        } catch (RuntimeException e) {
+            // Without the shared view the database has to decide
+            log.warn("Redis dedupe lookup failed: {}", e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Remember a sent message. Inside a transaction this happens after commit,
+     * so a rolled back send does not leave an entry behind.
+     */
+    public void record(String clientMsgId, String messageId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    remember(clientMsgId, messageId);
+                }
+            });
+        } else {
+            remember(clientMsgId, messageId);
+        }
+    }
+
+    private void remember(String clientMsgId, String messageId) {
+        rotateIfDue();
+        current.put(clientMsgId);
+        recent.put(clientMsgId, messageId);
+        if (redisTemplate != null) {
+            try {
+                redisTemplate.opsForValue().setIfAbsent(REDIS_KEY_PREFIX + clientMsgId, messageId, redisTtl);
+            } catch (RuntimeException e) {
+                log.warn("Redis dedupe record failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void rotateIfDue() {
+        if (System.currentTimeMillis() - currentStartedAt < windowMillis) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - currentStartedAt >= windowMillis) {
+                // Ids only live in the older generation for one more window
+                previous = current;
+                current = newFilter();
+                currentStartedAt = now;
+            }
+        }
+    }
+
+    private BloomFilter newFilter() {
+        return BloomFilter.create(expectedPerWindow, falsePositiveRate);
+    }
+}
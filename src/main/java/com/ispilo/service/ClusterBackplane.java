@@ -0,0 +1,32 @@
+package com.ispilo.service;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Transport between chat nodes: pub/sub channels plus a registry of which
+ * nodes hold STOMP sessions for a user.
+ */
+public interface ClusterBackplane {
+
+    void publish(String channel, byte[] message);
+
+    /**
+     * Listeners are called on a backplane thread, never on the publisher's
+     */
+    void subscribe(String channel, Consumer<byte[]> listener);
+
+    void sessionOpened(String userId, String nodeId);
+
+    void sessionClosed(String userId, String nodeId);
+
+    /**
+     * Live nodes with at least one session for the user
+     */
+    Set<String> nodesFor(String userId);
+
+    /**
+     * Mark this node alive; nodes that stop calling this drop out of {@link #nodesFor}
+     */
+    void heartbeat(String nodeId);
+}
@@ -0,0 +1,210 @@
+package com.ispilo.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ispilo.util.HashedTimingWheel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cross-node fan-out for the simple broker (app.chat.cluster.mode = redis | local).
+ * Registered as a brokerChannel interceptor:
+ * - /topic messages are published to every node
+ * - /user/{id}/... messages go to the nodes holding a session for that user
+ * Each receiving node re-sends the message into its own brokerChannel, marked with the
+ * origin node so it is not relayed again. Session connects and disconnects keep the
+ * backplane's user registry current; a disconnect is only unregistered once the resume
+ * window has passed, so events for the user keep reaching this node and are recorded
+ * for replay by SessionResumeService, like the events this node publishes itself.
+ *
+ * Only server-originated sends are relayed; clients publish through /app handlers.
+ */
+@Component
+@ConditionalOnExpression("'${app.chat.cluster.mode:none}' != 'none'")
+@Slf4j
+public class ClusterBrokerRelay implements ChannelInterceptor {
+
+    static final String ORIGIN_HEADER = "clusterOrigin";
+
+    private static final String TOPIC_CHANNEL = "chat:cluster:topic";
+    private static final String NODE_CHANNEL_PREFIX = "chat:cluster:node:";
+    private static final String USER_PREFIX = "/user/";
+
+    record Envelope(String origin, String destination, String contentType,
+                    Map<String, List<String>> nativeHeaders, byte[] payload) {}
+
+    private final ClusterBackplane backplane;
+    private final ObjectMapper objectMapper;
+    // The template sends into brokerChannel, which this interceptor is part of
+    private final ObjectProvider<SimpMessagingTemplate> messagingTemplate;
+    private final SessionResumeService sessionResumeService;
+    private final String nodeId;
+    private final HashedTimingWheel wheel;
+
+    public ClusterBrokerRelay(ClusterBackplane backplane,
+                              ObjectMapper objectMapper,
+                              ObjectProvider<SimpMessagingTemplate> messagingTemplate,
+                              SessionResumeService sessionResumeService,
+                              @Value("${app.chat.cluster.node-id:}") String nodeId) {
+        this.backplane = backplane;
+        this.objectMapper = objectMapper;
+        this.messagingTemplate = messagingTemplate;
+        this.sessionResumeService = sessionResumeService;
+        this.nodeId = nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+        this.wheel = new HashedTimingWheel("chat-cluster-wheel", 1, TimeUnit.SECONDS, 256,
+                (thread, e) -> log.warn("Failed to unregister a closed session: {}", e.getMessage()));
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @PostConstruct
+    void subscribe() {
+        backplane.heartbeat(nodeId);
+        backplane.subscribe(TOPIC_CHANNEL, this::receive);
+        backplane.subscribe(NODE_CHANNEL_PREFIX + nodeId, this::receive);
+        log.info("Chat cluster relay started on node {}", nodeId);
+    }
+
+    @PreDestroy
+    void close() {
+        wheel.close();
+    }
+
+    @Scheduled(fixedDelayString = "${app.chat.cluster.heartbeat-ms:10000}")
+    public void heartbeat() {
+        backplane.heartbeat(nodeId);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                || headers.containsKey(ORIGIN_HEADER)) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null) {
+            return message;
+        }
+
+        try {
+            if (destination.startsWith("/topic/")) {
+                backplane.publish(TOPIC_CHANNEL, encode(message, destination));
+            } else if (destination.startsWith(USER_PREFIX)) {
+                relayToUser(message, destination);
+            }
+        } catch (RuntimeException e) {
+            // Local delivery still goes ahead
+            log.warn("Failed to relay {} to the cluster: {}", destination, e.getMessage());
+        }
+        return message;
+    }
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        Principal user = event.getUser();
+        if (user != null) {
+            backplane.sessionOpened(user.getName(), nodeId);
+        }
+    }
+
+    @EventListener
+    public void onDisconnected(SessionDisconnectEvent event) {
+        Principal user = event.getUser();
+        if (user == null) {
+            return;
+        }
+        long retention = sessionResumeService.getRetentionMillis();
+        if (retention > 0) {
+            wheel.schedule(() -> backplane.sessionClosed(user.getName(), nodeId), retention, TimeUnit.MILLISECONDS);
+        } else {
+            backplane.sessionClosed(user.getName(), nodeId);
+        }
+    }
+
+    private void relayToUser(Message<?> message, String destination) {
+        int end = destination.indexOf('/', USER_PREFIX.length());
+        if (end < 0) {
+            return;
+        }
+        String userId = destination.substring(USER_PREFIX.length(), end);
+        Set<String> nodes = backplane.nodesFor(userId);
+        if (nodes.isEmpty() || (nodes.size() == 1 && nodes.contains(nodeId))) {
+            return;
+        }
+        byte[] encoded = encode(message, destination);
+        for (String node : nodes) {
+            if (!node.equals(nodeId)) {
+                backplane.publish(NODE_CHANNEL_PREFIX + node, encoded);
+            }
+        }
+    }
+
+    private byte[] encode(Message<?> message, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        MimeType contentType = accessor.getContentType();
+        byte[] payload = message.getPayload() instanceof byte[] bytes ? bytes
+                : message.getPayload().toString().getBytes(StandardCharsets.UTF_8);
+        Envelope envelope = new Envelope(nodeId, destination,
+                contentType != null ? contentType.toString() : null, accessor.toNativeHeaderMap(), payload);
+        try {
+            return objectMapper.writeValueAsBytes(envelope);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode cluster message", e);
+        }
+    }
+
+    private void receive(byte[] body) {
+        Envelope envelope;
+        try {
+            envelope = objectMapper.readValue(body, Envelope.class);
+        } catch (java.io.IOException e) {
+            log.warn("Dropping undecodable cluster message: {}", e.getMessage());
+            return;
+        }
+        if (nodeId.equals(envelope.origin())) {
+            return;
+        }
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(envelope.destination());
+        if (envelope.contentType() != null) {
+            accessor.setContentType(MimeType.valueOf(envelope.contentType()));
+        }
+        if (envelope.nativeHeaders() != null) {
+            envelope.nativeHeaders().forEach((name, values) -> values.forEach(value -> accessor.addNativeHeader(name, value)));
+        }
+        accessor.setHeader(ORIGIN_HEADER, envelope.origin());
+        accessor.setLeaveMutable(true);
+        sessionResumeService.recordRelayed(envelope.destination(), envelope.payload());
+        messagingTemplate.getObject().send(MessageBuilder.createMessage(envelope.payload(), accessor.getMessageHeaders()));
+    }
+}
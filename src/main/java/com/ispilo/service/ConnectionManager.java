@@ -0,0 +1,322 @@
+package com.ispilo.service;
+
+import com.ispilo.util.HierarchicalTimingWheel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * STOMP heartbeats and dead-connection reaping, in place of the simple broker's heartbeat
+ * task, which walks every session on every period. Each session records its last inbound
+ * and outbound frame with a plain field write and owns one timeout on a hierarchical timing
+ * wheel, re-armed when it fires for whatever comes first: the next heartbeat to send, the
+ * read deadline or the idle mark. The cost per tick is the timeouts due, not the sessions held.
+ *
+ * A session is closed when it misses its negotiated heartbeats for three periods, when it
+ * sends nothing for the idle timeout without having negotiated heartbeats, or when it never
+ * completes the STOMP CONNECT. Closing publishes the usual disconnect, which ends presence
+ * and opens the resume window.
+ *
+ * Registered as the innermost WebSocket decorator, under OutboundFrameBatcher: heartbeats
+ * are queued like any other frame, and a session that was just sent a frame needs none.
+ * Also an outbound channel interceptor, to offer the heartbeat values in CONNECTED.
+ */
+@Component
+@Slf4j
+public class ConnectionManager implements WebSocketHandlerDecoratorFactory, ChannelInterceptor {
+
+    // Missed client heartbeats tolerated before the session counts as dead, as in the simple broker
+    private static final int HEARTBEAT_TOLERANCE = 3;
+    private static final TextMessage HEARTBEAT = new TextMessage("\n");
+
+    private final Map<String, ManagedSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger idleSessions = new AtomicInteger();
+
+    private final ThreadPoolTaskExecutor fanoutExecutor;
+    private final HierarchicalTimingWheel wheel;
+    private final long heartbeatMillis;
+    private final long idleTimeoutMillis;
+    private final long idleAfterMillis;
+    private final long connectTimeoutMillis;
+
+    private final Counter heartbeatsSent;
+    private final Counter reapedMissedHeartbeats;
+    private final Counter reapedIdle;
+    private final Counter reapedUnconnected;
+
+    public ConnectionManager(MeterRegistry meterRegistry,
+                             @Qualifier("chatFanoutExecutor") ThreadPoolTaskExecutor fanoutExecutor,
+                             @Value("${app.chat.connections.heartbeat-ms:10000}") long heartbeatMillis,
+                             @Value("${app.chat.connections.idle-timeout-ms:300000}") long idleTimeoutMillis,
+                             @Value("${app.chat.connections.idle-after-ms:60000}") long idleAfterMillis,
+                             @Value("${app.chat.connections.connect-timeout-ms:30000}") long connectTimeoutMillis,
+                             @Value("${app.chat.connections.tick-ms:100}") long tickMillis,
+                             @Value("${app.chat.connections.wheel-size:512}") int wheelSize,
+                             @Value("${app.chat.connections.wheel-levels:3}") int wheelLevels) {
+        this.fanoutExecutor = fanoutExecutor;
+        this.heartbeatMillis = heartbeatMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.idleAfterMillis = idleAfterMillis;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.wheel = new HierarchicalTimingWheel("chat-connection-wheel", tickMillis, TimeUnit.MILLISECONDS,
+                wheelSize, wheelLevels, (thread, e) -> log.error("Connection check failed", e));
+
+        this.heartbeatsSent = meterRegistry.counter("chat.ws.connections.heartbeats");
+        this.reapedMissedHeartbeats = meterRegistry.counter("chat.ws.connections.reaped", "reason", "heartbeat");
+        this.reapedIdle = meterRegistry.counter("chat.ws.connections.reaped", "reason", "idle");
+        this.reapedUnconnected = meterRegistry.counter("chat.ws.connections.reaped", "reason", "connect-timeout");
+        Gauge.builder("chat.ws.connections.active", sessions, Map::size)
+                .description("Open WebSocket sessions")
+                .register(meterRegistry);
+        Gauge.builder("chat.ws.connections.idle", idleSessions, AtomicInteger::get)
+                .description("Sessions silent for longer than the idle mark")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                ManagedSession managed = new ManagedSession(session);
+                sessions.put(session.getId(), managed);
+                arm(managed, connectTimeoutMillis);
+                super.afterConnectionEstablished(managed);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                ManagedSession managed = sessions.get(session.getId());
+                if (managed != null) {
+                    managed.onRead();
+                }
+                super.handleMessage(managed != null ? managed : session, message);
+            }
+
+            @Override
+            public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+                ManagedSession managed = sessions.get(session.getId());
+                super.handleTransportError(managed != null ? managed : session, exception);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                ManagedSession managed = sessions.remove(session.getId());
+                if (managed != null) {
+                    managed.release();
+                }
+                super.afterConnectionClosed(managed != null ? managed : session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * Negotiates heartbeats on CONNECT_ACK, the way the simple broker would have: the
+     * CONNECTED frame offers our values, and the session adopts the larger of each pair.
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.CONNECT_ACK) {
+            return message;
+        }
+        ManagedSession managed = sessions.get(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+        if (managed != null) {
+            long[] client = {0, 0};
+            if (message.getHeaders().get(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER) instanceof Message<?> connect) {
+                client = StompHeaderAccessor.wrap(connect).getHeartbeat();
+            }
+            // client[0]: how often it sends, client[1]: how often it wants to hear from us
+            long writeInterval = client[1] > 0 && heartbeatMillis > 0 ? Math.max(client[1], heartbeatMillis) : 0;
+            long readTimeout = client[0] > 0 && heartbeatMillis > 0
+                    ? Math.max(client[0], heartbeatMillis) * HEARTBEAT_TOLERANCE : 0;
+            managed.connected(writeInterval, readTimeout);
+            arm(managed, nextCheckIn(managed, System.currentTimeMillis()));
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        accessor.setHeader(SimpMessageHeaderAccessor.HEART_BEAT_HEADER, new long[]{heartbeatMillis, heartbeatMillis});
+        return MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+    }
+
+    @PreDestroy
+    void close() {
+        wheel.close();
+    }
+
+    private void arm(ManagedSession managed, long delayMillis) {
+        synchronized (managed) {
+            if (managed.closed) {
+                return;
+            }
+            if (managed.timeout != null) {
+                managed.timeout.cancel();
+            }
+            long generation = ++managed.generation;
+            managed.timeout = wheel.schedule(() -> check(managed, generation), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs on the wheel thread: reap, mark idle, send a heartbeat, re-arm
+     */
+    private void check(ManagedSession managed, long generation) {
+        synchronized (managed) {
+            if (managed.closed || managed.generation != generation) {
+                return;
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (!managed.connected) {
+            reap(managed, reapedUnconnected, "no STOMP CONNECT");
+            return;
+        }
+        long silent = now - managed.lastReadAt;
+        if (managed.readTimeout > 0 && silent >= managed.readTimeout) {
+            reap(managed, reapedMissedHeartbeats, "missed heartbeats");
+            return;
+        }
+        if (managed.readTimeout == 0 && idleTimeoutMillis > 0 && silent >= idleTimeoutMillis) {
+            reap(managed, reapedIdle, "idle");
+            return;
+        }
+        if (idleAfterMillis > 0 && silent >= idleAfterMillis && !managed.idle) {
+            managed.markIdle();
+        }
+        if (managed.writeInterval > 0 && now - managed.lastWriteAt >= managed.writeInterval) {
+            sendHeartbeat(managed, now);
+        }
+        arm(managed, nextCheckIn(managed, now));
+    }
+
+    private long nextCheckIn(ManagedSession managed, long now) {
+        long next = Long.MAX_VALUE;
+        if (managed.readTimeout > 0) {
+            next = Math.min(next, managed.lastReadAt + managed.readTimeout);
+        } else if (idleTimeoutMillis > 0) {
+            next = Math.min(next, managed.lastReadAt + idleTimeoutMillis);
+        }
+        if (managed.writeInterval > 0) {
+            next = Math.min(next, managed.lastWriteAt + managed.writeInterval);
+        }
+        if (idleAfterMillis > 0 && !managed.idle) {
+            next = Math.min(next, managed.lastReadAt + idleAfterMillis);
+        }
+        // Nothing to watch: look again after a heartbeat period in case that changes
+        return next == Long.MAX_VALUE ? Math.max(heartbeatMillis, 1000) : Math.max(0, next - now);
+    }
+
+    private void sendHeartbeat(ManagedSession managed, long now) {
+        managed.lastWriteAt = now;
+        try {
+            // Queued by the batcher underneath, so this never blocks the wheel
+            managed.getDelegate().sendMessage(HEARTBEAT);
+            heartbeatsSent.increment();
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to send heartbeat to session {}: {}", managed.getId(), e.getMessage());
+        }
+    }
+
+    private void reap(ManagedSession managed, Counter reason, String description) {
+        log.debug("Closing WebSocket session {}: {}", managed.getId(), description);
+        reason.increment();
+        managed.release();
+        // Closing a half-open connection can wait on the socket, so keep it off the wheel
+        fanoutExecutor.execute(() -> {
+            try {
+                managed.getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException e) {
+                log.debug("Failed to close session {}: {}", managed.getId(), e.getMessage());
+            }
+        });
+    }
+
+    private final class ManagedSession extends WebSocketSessionDecorator {
+
+        volatile long lastReadAt = System.currentTimeMillis();
+        volatile long lastWriteAt = lastReadAt;
+        // Negotiated at CONNECT; zero when heartbeats are off in that direction
+        volatile long writeInterval;
+        volatile long readTimeout;
+        volatile boolean connected;
+        volatile boolean idle;
+        // Guarded by this
+        boolean closed;
+        long generation;
+        HierarchicalTimingWheel.Timeout timeout;
+
+        ManagedSession(WebSocketSession delegate) {
+            super(delegate);
+        }
+
+        void connected(long writeInterval, long readTimeout) {
+            this.writeInterval = writeInterval;
+            this.readTimeout = readTimeout;
+            this.connected = true;
+        }
+
+        void onRead() {
+            lastReadAt = System.currentTimeMillis();
+            if (idle) {
+                clearIdle();
+            }
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            lastWriteAt = System.currentTimeMillis();
+            super.sendMessage(message);
+        }
+
+        synchronized void markIdle() {
+            if (!closed && !idle) {
+                idle = true;
+                idleSessions.incrementAndGet();
+            }
+        }
+
+        synchronized void clearIdle() {
+            if (idle) {
+                idle = false;
+                idleSessions.decrementAndGet();
+            }
+        }
+
+        synchronized void release() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            clearIdle();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.ispilo.service;
+
+import com.ispilo.repository.ConversationRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ConcurrentLruCache;
+
+import java.util.Set;
+
+/**
+ * Bounded in-memory cache of conversation participant ids.
+ * Membership checks on the message hot path become a hash lookup instead of
+ * initializing the lazy participants collection and hashing full User entities.
+ */
+@Component
+@Slf4j
+public class ConversationMembershipCache {
+
+    private final ConcurrentLruCache<String, Set<String>> participantsByConversation;
+
+    public ConversationMembershipCache(ConversationRepository conversationRepository,
+                                       @Value("${app.chat.membership-cache-size:10000}") int capacity) {
+        this.participantsByConversation = new ConcurrentLruCache<>(capacity,
+                conversationId -> Set.copyOf(conversationRepository.findParticipantIds(conversationId)));
+    }
+
+    public boolean isParticipant(String conversationId, String userId) {
+        return participantsByConversation.get(conversationId).contains(userId);
+    }
+
+    /**
+     * Participant ids of a conversation, loaded with an id-only query on first access
+     */
+    public Set<String> getParticipantIds(String conversationId) {
+        return participantsByConversation.get(conversationId);
+    }
+
+    /**
+     * Drop the cached participant set after a join or leave.
+     * Inside a transaction the entry is dropped again after commit so a
+     * concurrent reload cannot cache the pre-commit participant list.
+     */
+    public void invalidate(String conversationId) {
+        participantsByConversation.remove(conversationId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    participantsByConversation.remove(conversationId);
+                }
+            });
+        }
+        log.debug("Invalidated membership cache for conversation {}", conversationId);
+    }
+}
@@ -5,22 +5,28 @@ import com.ispilo.exception.NotFoundException;
 import com.ispilo.exception.UnauthorizedException;
 import com.ispilo.model.dto.request.CreateConversationRequest;
 import com.ispilo.model.dto.response.ConversationResponse;
+import com.ispilo.model.dto.response.UserResponse;
 import com.ispilo.model.entity.Conversation;
+import com.ispilo.model.entity.ConversationInboxEntry;
 import com.ispilo.model.entity.User;
 import com.ispilo.model.enums.ConversationType;
+import com.ispilo.repository.ConversationInboxRepository;
 import com.ispilo.repository.ConversationRepository;
 import com.ispilo.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -31,6 +37,10 @@ public class ConversationService {
 
     private final ConversationRepository conversationRepository;
     private final UserRepository userRepository;
+    private final ConversationMembershipCache membershipCache;
+    private final ConversationInboxRepository inboxRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ConversationTopicAuthorizer topicAuthorizer;
 
     @Transactional
     public ConversationResponse createConversation(String userId, CreateConversationRequest request) {
@@ -61,24 +71,27 @@ public class ConversationService {
         }
 
         // Check if direct conversation already exists
+        String directKey = null;
         if (request.getType() == ConversationType.DIRECT) {
             List<User> participantList = participants.stream().toList();
-            Conversation existing = conversationRepository
-                    .findDirectConversationBetweenUsers(participantList.get(0).getId(),
-                                                       participantList.get(1).getId());
+            directKey = Conversation.directKeyFor(participantList.get(0).getId(), participantList.get(1).getId());
+            Conversation existing = conversationRepository.findByDirectKey(directKey).orElse(null);
             if (existing != null) {
                 log.debug("Direct conversation already exists: {}", existing.getId());
                 return ConversationResponse.fromEntity(existing);
             }
         }
 
-        // Create conversation
+        // Create conversation; the unique direct_key rejects a concurrently created duplicate
         Conversation conversation = Conversation.builder()
                 .type(request.getType())
+                .directKey(directKey)
                 .participants(participants)
                 .build();
 
         conversation = conversationRepository.save(conversation);
+        membershipCache.invalidate(conversation.getId());
+        createInboxEntries(conversation);
 
         log.info("Created conversation {} with {} participants",
                 conversation.getId(), participants.size());
@@ -90,18 +103,30 @@ public class ConversationService {
     public Page<ConversationResponse> getUserConversations(String userId, int page, int size) {
         log.debug("Getting conversations for user {}", userId);
 
+        Page<ConversationInboxEntry> entries = inboxRepository.findInbox(userId, PageRequest.of(page, size));
+
+        // Resolve the viewer and DIRECT peers in one lookup instead of every participant per row
+        Set<String> userIds = new HashSet<>();
+        userIds.add(userId);
+        entries.forEach(entry -> {
+            if (entry.getPeerUserId() != null) {
+                userIds.add(entry.getPeerUserId());
+            }
+        });
+        Map<String, UserResponse> users = userRepository.findAllById(userIds).stream()
+                .collect(Collectors.toMap(User::getId, UserResponse::fromEntity));
+
         // Validate user exists
-        if (!userRepository.existsById(userId)) {
+        UserResponse viewer = users.get(userId);
+        if (viewer == null) {
             throw new NotFoundException("User not found");
         }
 
-        Pageable pageable = PageRequest.of(page, size,
-                Sort.by("lastMessageAt").descending());
-
-        Page<Conversation> conversations = conversationRepository
-                .findByParticipantsId(userId, pageable);
-
-        return conversations.map(ConversationResponse::fromEntity);
+        return entries.map(entry -> {
+            UserResponse peer = entry.getPeerUserId() != null ? users.get(entry.getPeerUserId()) : null;
+            List<UserResponse> participants = peer != null ? List.of(viewer, peer) : List.of();
+            return ConversationResponse.fromInboxEntry(entry, participants);
+        });
     }
 
     @Transactional(readOnly = true)
@@ -112,14 +137,14 @@ public class ConversationService {
                 .orElseThrow(() -> new NotFoundException("Conversation not found"));
 
         // Validate user is participant
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new NotFoundException("User not found"));
-
-        if (!conversation.getParticipants().contains(user)) {
+        if (!membershipCache.isParticipant(conversationId, userId)) {
             throw new UnauthorizedException("User is not a participant in this conversation");
         }
 
-        return ConversationResponse.fromEntity(conversation);
+        ConversationResponse response = ConversationResponse.fromEntity(conversation);
+        inboxRepository.findByUserIdAndConversationId(userId, conversationId)
+                .ifPresent(entry -> response.setUnreadCount(entry.getUnreadCount()));
+        return response;
     }
 
     @Transactional
@@ -130,27 +155,59 @@ public class ConversationService {
                 .orElseThrow(() -> new NotFoundException("Conversation not found"));
 
         // Validate user is participant
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new NotFoundException("User not found"));
-
-        if (!conversation.getParticipants().contains(user)) {
+        if (!membershipCache.isParticipant(conversationId, userId)) {
             throw new UnauthorizedException("User is not a participant in this conversation");
         }
 
         // Remove user from participants (soft delete)
-        conversation.getParticipants().remove(user);
-
-        // If no participants left, delete the conversation
+        conversation.getParticipants().removeIf(participant -> participant.getId().equals(userId));
+        // The pair no longer maps to this conversation; opening the chat again starts a new one
+        conversation.setDirectKey(null);
+        membershipCache.invalidate(conversationId);
+        topicAuthorizer.revoke(conversationId, userId);
+        inboxRepository.deleteEntry(conversationId, userId);
+
+        // If no participants left, hand the conversation to the purge job
         if (conversation.getParticipants().isEmpty()) {
-            conversationRepository.delete(conversation);
-            log.info("Deleted conversation {}", conversationId);
+            inboxRepository.deleteByConversation(conversationId);
+            conversation.setDeletedAt(LocalDateTime.now());
+            conversationRepository.save(conversation);
+            log.info("Deleted conversation {}, purge scheduled", conversationId);
         } else {
             conversationRepository.save(conversation);
             log.info("Removed user {} from conversation {}", userId, conversationId);
         }
     }
 
-    @Transactional
+    private void createInboxEntries(Conversation conversation) {
+        List<ConversationInboxEntry> entries = new ArrayList<>(conversation.getParticipants().size());
+        for (User participant : conversation.getParticipants()) {
+            String peerId = null;
+            if (conversation.getType() == ConversationType.DIRECT) {
+                peerId = conversation.getParticipants().stream()
+                        .map(User::getId)
+                        .filter(id -> !id.equals(participant.getId()))
+                        .findFirst()
+                        .orElse(null);
+            }
+            entries.add(ConversationInboxEntry.builder()
+                    .userId(participant.getId())
+                    .conversationId(conversation.getId())
+                    .conversationType(conversation.getType())
+                    .peerUserId(peerId)
+                    .lastMessageAt(conversation.getLastMessageAt())
+                    .lastMessagePreview(conversation.getLastMessage())
+                    .createdAt(conversation.getCreatedAt())
+                    .build());
+        }
+        inboxRepository.saveAll(entries);
+    }
+
+    /**
+     * One point lookup on direct_key, then an insert in its own transaction.
+     * If another request created the pair first, the unique key rejects the insert
+     * and the winner's conversation is returned instead.
+     */
     public ConversationResponse getOrCreateDirectConversation(String userId, String otherUserId) {
         log.debug("Getting or creating direct conversation between {} and {}", userId, otherUserId);
 
@@ -158,13 +215,11 @@ public class ConversationService {
             throw new BadRequestException("Cannot create conversation with yourself");
         }
 
-        // Check if conversation exists
-        Conversation existing = conversationRepository
-                .findDirectConversationBetweenUsers(userId, otherUserId);
-
+        String directKey = Conversation.directKeyFor(userId, otherUserId);
+        ConversationResponse existing = findDirectConversation(directKey);
         if (existing != null) {
             log.debug("Direct conversation exists: {}", existing.getId());
-            return ConversationResponse.fromEntity(existing);
+            return existing;
         }
 
         // Create new conversation
@@ -172,6 +227,21 @@ public class ConversationService {
         request.setType(ConversationType.DIRECT);
         request.setParticipantIds(List.of(otherUserId));
 
-        return createConversation(userId, request);
+        try {
+            return transactionTemplate.execute(status -> createConversation(userId, request));
+        } catch (DataIntegrityViolationException e) {
+            ConversationResponse created = findDirectConversation(directKey);
+            if (created == null) {
+                throw e;
+            }
+            log.debug("Direct conversation {} was created concurrently", created.getId());
+            return created;
+        }
+    }
+
+    private ConversationResponse findDirectConversation(String directKey) {
+        return transactionTemplate.execute(status -> conversationRepository.findByDirectKey(directKey)
+                .map(ConversationResponse::fromEntity)
+                .orElse(null));
     }
 }
@@ -0,0 +1,212 @@
+package com.ispilo.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ispilo.exception.UnauthorizedException;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Guards /topic subscriptions, which GROUP conversations are delivered through.
+ * The only subscribable topics are /topic/conversation/{id} and its /typing, /read and
+ * /media subtopics; anything else under /topic, and any destination with a broker
+ * pattern character, is rejected so a wildcard cannot match other conversations.
+ * SUBSCRIBE is checked against the membership cache and rejected for non-participants,
+ * so a publish to the topic reaches members only. Accepted subscriptions are remembered
+ * so they can be revoked when a user leaves; in cluster mode revocations are relayed
+ * to every node.
+ */
+@Component
+@Slf4j
+public class ConversationTopicAuthorizer implements ChannelInterceptor {
+
+    public static final String TOPIC_PREFIX = "/topic/conversation/";
+
+    private static final Pattern CONVERSATION_TOPIC = Pattern.compile("/topic/conversation/([\\w-]+)(?:/(?:typing|read|media))?");
+    private static final String REVOKE_CHANNEL = "chat:cluster:revoke";
+
+    record Revocation(String conversationId, String userId) {}
+
+    private record Subscription(String sessionId, String subscriptionId, String conversationId,
+                                String userId, String destination) {}
+
+    // sessionId -> subscriptionId -> subscription
+    private final Map<String, Map<String, Subscription>> bySession = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscription>> byConversation = new ConcurrentHashMap<>();
+
+    private final ConversationMembershipCache membershipCache;
+    // Created by the broker configuration, which registers this interceptor
+    private final ObjectProvider<SimpMessagingTemplate> messagingTemplate;
+    // Present only in cluster mode
+    private final Optional<ClusterBackplane> backplane;
+    private final ObjectMapper objectMapper;
+
+    public ConversationTopicAuthorizer(ConversationMembershipCache membershipCache,
+                                       ObjectProvider<SimpMessagingTemplate> messagingTemplate,
+                                       Optional<ClusterBackplane> backplane,
+                                       ObjectMapper objectMapper) {
+        this.membershipCache = membershipCache;
+        this.messagingTemplate = messagingTemplate;
+        this.backplane = backplane;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    void subscribeRevocations() {
+        backplane.ifPresent(plane -> plane.subscribe(REVOKE_CHANNEL, this::receiveRevocation));
+    }
+
+    public static String topicFor(String conversationId) {
+        return TOPIC_PREFIX + conversationId;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (type == SimpMessageType.SUBSCRIBE) {
+            authorize(message, sessionId);
+        } else if (type == SimpMessageType.UNSUBSCRIBE && sessionId != null) {
+            String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders());
+            Map<String, Subscription> subscriptions = bySession.get(sessionId);
+            if (subscriptions != null && subscriptionId != null) {
+                forget(subscriptions.remove(subscriptionId));
+            }
+        } else if (type == SimpMessageType.DISCONNECT && sessionId != null) {
+            Map<String, Subscription> subscriptions = bySession.remove(sessionId);
+            if (subscriptions != null) {
+                subscriptions.values().forEach(this::forget);
+            }
+        }
+        return message;
+    }
+
+    /**
+     * End the user's live subscriptions to a conversation's topics on every node, after commit when in a transaction
+     */
+    public void revoke(String conversationId, String userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    revokeNow(conversationId, userId);
+                }
+            });
+        } else {
+            revokeNow(conversationId, userId);
+        }
+    }
+
+    private void revokeNow(String conversationId, String userId) {
+        unsubscribe(conversationId, userId);
+        backplane.ifPresent(plane -> {
+            try {
+                plane.publish(REVOKE_CHANNEL, objectMapper.writeValueAsBytes(new Revocation(conversationId, userId)));
+            } catch (JsonProcessingException | RuntimeException e) {
+                log.warn("Failed to relay revocation of {} for user {}: {}", conversationId, userId, e.getMessage());
+            }
+        });
+    }
+
+    private void receiveRevocation(byte[] body) {
+        Revocation revocation;
+        try {
+            revocation = objectMapper.readValue(body, Revocation.class);
+        } catch (IOException e) {
+            log.warn("Dropping undecodable revocation: {}", e.getMessage());
+            return;
+        }
+        // This node's cached participant list predates the leave as well
+        membershipCache.invalidate(revocation.conversationId());
+        unsubscribe(revocation.conversationId(), revocation.userId());
+    }
+
+    private void authorize(Message<?> message, String sessionId) {
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null) {
+            return;
+        }
+        // The simple broker matches subscriptions as Ant patterns
+        if (destination.indexOf('*') >= 0 || destination.indexOf('?') >= 0 || destination.indexOf('{') >= 0) {
+            log.warn("Rejected pattern subscription to {}", destination);
+            throw new UnauthorizedException("Subscription patterns are not allowed");
+        }
+        if (!destination.startsWith("/topic")) {
+            return;
+        }
+        Matcher matcher = CONVERSATION_TOPIC.matcher(destination);
+        if (!matcher.matches()) {
+            log.warn("Rejected subscription to unknown topic {}", destination);
+            throw new UnauthorizedException("Unknown topic");
+        }
+        String conversationId = matcher.group(1);
+
+        Principal user = SimpMessageHeaderAccessor.getUser(message.getHeaders());
+        if (user == null || !membershipCache.isParticipant(conversationId, user.getName())) {
+            log.warn("Rejected subscription to {} by {}", destination, user != null ? user.getName() : "anonymous");
+            throw new UnauthorizedException("User is not a participant in this conversation");
+        }
+
+        String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders());
+        if (sessionId != null && subscriptionId != null) {
+            Subscription subscription = new Subscription(sessionId, subscriptionId, conversationId, user.getName(), destination);
+            bySession.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, subscription);
+            byConversation.computeIfAbsent(conversationId, id -> ConcurrentHashMap.newKeySet()).add(subscription);
+        }
+    }
+
+    private void forget(Subscription subscription) {
+        if (subscription == null) {
+            return;
+        }
+        byConversation.computeIfPresent(subscription.conversationId(), (id, subscriptions) -> {
+            subscriptions.remove(subscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+
+    private void unsubscribe(String conversationId, String userId) {
+        Set<Subscription> subscriptions = byConversation.get(conversationId);
+        if (subscriptions == null) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.userId().equals(userId)) {
+                continue;
+            }
+            // The broker drops the subscription as if the client had sent UNSUBSCRIBE
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+            accessor.setSessionId(subscription.sessionId());
+            accessor.setSubscriptionId(subscription.subscriptionId());
+            accessor.setDestination(subscription.destination());
+            messagingTemplate.getObject().send(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+
+            Map<String, Subscription> sessionSubscriptions = bySession.get(subscription.sessionId());
+            if (sessionSubscriptions != null) {
+                sessionSubscriptions.remove(subscription.subscriptionId());
+            }
+            forget(subscription);
+            log.debug("Revoked subscription {} of user {}", subscription.destination(), userId);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.ispilo.service;
+
+import com.ispilo.exception.UnauthorizedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delivery receipts as per-(conversation, user) high-water sequences.
+ * Clients ack the highest seq they have received in a conversation rather than each
+ * message. Acks are merged in memory, so any number of them between two flushes
+ * costs one row update, and the flush pushes one "delivered up to N" event per
+ * (conversation, user) to the other participants on /user/queue/delivery-status.
+ * Acks are clamped to the conversation's current sequence when flushed, so a client
+ * cannot mark messages delivered before they exist.
+ */
+@Service
+@Slf4j
+public class DeliveryReceiptService {
+
+    // Same forward-only upsert as the read watermark, on the delivery column
+    private static final String ADVANCE_DELIVERED_SQL =
+            "INSERT INTO conversation_read_states (conversation_id, user_id, last_read_seq, last_delivered_seq, updated_at) " +
+            "VALUES (?, ?, 0, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE " +
+            "updated_at = CASE WHEN VALUES(last_delivered_seq) > last_delivered_seq THEN VALUES(updated_at) ELSE updated_at END, " +
+            "last_delivered_seq = GREATEST(last_delivered_seq, VALUES(last_delivered_seq))";
+
+    private static final String LAST_SEQS_SQL = "SELECT id, last_seq FROM conversations WHERE id IN (%s)";
+
+    private record Key(String conversationId, String userId) {}
+
+    public record DeliveryStatusNotification(String conversationId, String userId, long lastDeliveredSeq) {}
+
+    private final Map<Key, Long> pending = new ConcurrentHashMap<>();
+
+    private final ConversationMembershipCache membershipCache;
+    private final SessionResumeService sessionResumeService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolTaskExecutor fanoutExecutor;
+    // Present only with app.chat.wal.enabled; its sequences run ahead of the database
+    private final Optional<MessageWriteAheadLog> writeAheadLog;
+    // Created by the broker configuration
+    private final ObjectProvider<SimpMessagingTemplate> messagingTemplate;
+
+    public DeliveryReceiptService(ConversationMembershipCache membershipCache,
+                                  SessionResumeService sessionResumeService,
+                                  JdbcTemplate jdbcTemplate,
+                                  TransactionTemplate transactionTemplate,
+                                  @Qualifier("chatFanoutExecutor") ThreadPoolTaskExecutor fanoutExecutor,
+                                  Optional<MessageWriteAheadLog> writeAheadLog,
+                                  ObjectProvider<SimpMessagingTemplate> messagingTemplate) {
+        this.membershipCache = membershipCache;
+        this.sessionResumeService = sessionResumeService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.fanoutExecutor = fanoutExecutor;
+        this.writeAheadLog = writeAheadLog;
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    /**
+     * Record that the user has received everything up to seq in the conversation
+     */
+    public void acknowledge(String userId, String conversationId, long seq) {
+        if (seq <= 0) {
+            return;
+        }
+        if (!membershipCache.isParticipant(conversationId, userId)) {
+            throw new UnauthorizedException("User is not a participant in this conversation");
+        }
+        pending.merge(new Key(conversationId, userId), seq, Math::max);
+    }
+
+    /**
+     * Persist the acks collected since the previous run in one batch, then notify
+     */
+    @Scheduled(fixedDelayString = "${app.chat.delivery.flush-interval-ms:1000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Key, Long>> batch = new ArrayList<>(Map.copyOf(pending).entrySet());
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Map.Entry<Key, Long>> clamped;
+        try {
+            clamped = transactionTemplate.execute(status -> {
+                List<Map.Entry<Key, Long>> acks = clamp(batch);
+                jdbcTemplate.batchUpdate(ADVANCE_DELIVERED_SQL, acks, acks.size(), (ps, entry) -> {
+                    ps.setString(1, entry.getKey().conversationId());
+                    ps.setString(2, entry.getKey().userId());
+                    ps.setLong(3, entry.getValue());
+                    ps.setTimestamp(4, now);
+                });
+                return acks;
+            });
+        } catch (RuntimeException e) {
+            // Entries stay pending and go out with the next run
+            log.warn("Failed to persist {} delivery receipts: {}", batch.size(), e.getMessage());
+            return;
+        }
+        // Keep acks that moved further while the batch was written
+        batch.forEach(entry -> pending.remove(entry.getKey(), entry.getValue()));
+
+        fanoutExecutor.execute(() -> clamped.forEach(entry -> notifyDelivered(entry.getKey(), entry.getValue())));
+        log.debug("Persisted {} delivery receipts", clamped.size());
+    }
+
+    /**
+     * Acks lowered to their conversation's current sequence; acks of deleted conversations are dropped
+     */
+    private List<Map.Entry<Key, Long>> clamp(List<Map.Entry<Key, Long>> batch) {
+        List<String> conversationIds = batch.stream().map(entry -> entry.getKey().conversationId()).distinct().toList();
+        String placeholders = String.join(",", Collections.nCopies(conversationIds.size(), "?"));
+        Map<String, Long> lastSeqs = new HashMap<>();
+        jdbcTemplate.query(String.format(LAST_SEQS_SQL, placeholders),
+                rs -> { lastSeqs.put(rs.getString(1), rs.getLong(2)); }, conversationIds.toArray());
+        writeAheadLog.ifPresent(wal -> lastSeqs.replaceAll((id, seq) -> Math.max(seq, wal.currentSeq(id))));
+
+        List<Map.Entry<Key, Long>> clamped = new ArrayList<>(batch.size());
+        for (Map.Entry<Key, Long> entry : batch) {
+            Long lastSeq = lastSeqs.get(entry.getKey().conversationId());
+            if (lastSeq != null && lastSeq > 0) {
+                clamped.add(Map.entry(entry.getKey(), Math.min(entry.getValue(), lastSeq)));
+            }
+        }
+        return clamped;
+    }
+
+    private void notifyDelivered(Key key, long seq) {
+        DeliveryStatusNotification notification =
+                new DeliveryStatusNotification(key.conversationId(), key.userId(), seq);
+        try {
+            for (String participantId : membershipCache.getParticipantIds(key.conversationId())) {
+                if (!participantId.equals(key.userId())) {
+                    sessionResumeService.record(participantId, "/user/queue/delivery-status", notification);
+                    messagingTemplate.getObject().convertAndSendToUser(participantId, "/queue/delivery-status", notification);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to publish delivery status for conversation {}: {}", key.conversationId(), e.getMessage());
+        }
+    }
+}
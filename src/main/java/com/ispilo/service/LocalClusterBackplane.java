@@ -0,0 +1,77 @@
+package com.ispilo.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * In-process stand-in for {@link RedisClusterBackplane}.
+ * State is static, so several application contexts in one JVM behave like
+ * separate nodes sharing one Redis; each instance delivers on its own thread,
+ * like a Redis subscriber connection.
+ */
+@Component
+@ConditionalOnProperty(name = "app.chat.cluster.mode", havingValue = "local")
+public class LocalClusterBackplane implements ClusterBackplane {
+
+    private static final Map<String, List<Consumer<byte[]>>> CHANNELS = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, Integer>> USER_NODES = new ConcurrentHashMap<>();
+
+    private final ExecutorService delivery = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-cluster-local");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Consumer<byte[]>> ownListeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(String channel, byte[] message) {
+        CHANNELS.getOrDefault(channel, List.of()).forEach(listener -> listener.accept(message));
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<byte[]> listener) {
+        Consumer<byte[]> async = message -> delivery.execute(() -> listener.accept(message));
+        ownListeners.add(async);
+        CHANNELS.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(async);
+    }
+
+    @Override
+    public void sessionOpened(String userId, String nodeId) {
+        USER_NODES.computeIfAbsent(userId, u -> new ConcurrentHashMap<>()).merge(nodeId, 1, Integer::sum);
+    }
+
+    @Override
+    public void sessionClosed(String userId, String nodeId) {
+        USER_NODES.computeIfPresent(userId, (user, nodes) -> {
+            nodes.computeIfPresent(nodeId, (node, count) -> count > 1 ? count - 1 : null);
+            return nodes.isEmpty() ? null : nodes;
+        });
+    }
+
+    @Override
+    public Set<String> nodesFor(String userId) {
+        Map<String, Integer> nodes = USER_NODES.get(userId);
+        return nodes == null ? Set.of() : Set.copyOf(nodes.keySet());
+    }
+
+    @Override
+    public void heartbeat(String nodeId) {
+        // Nodes in one JVM share a lifetime
+    }
+
+    @PreDestroy
+    void close() {
+        CHANNELS.values().forEach(listeners -> listeners.removeAll(ownListeners));
+        delivery.shutdownNow();
+    }
+}
@@ -0,0 +1,224 @@
+package com.ispilo.service;
+
+import com.ispilo.model.enums.ConversationType;
+import com.ispilo.repository.MessageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Thumbnails and previews for IMAGE messages, made after the message is stored.
+ * Jobs run on the bounded chatMediaExecutor, so the send path only enqueues. Only
+ * files uploaded through MediaService are processed; external URLs are left as-is.
+ * When both variants are written, participants get a small "media ready" event with
+ * the new URLs on /user/queue/media (DIRECT) or the conversation's /media topic (GROUP).
+ */
+@Service
+@Slf4j
+public class MediaProcessingService {
+
+    private static final int PERSIST_ATTEMPTS = 5;
+    private static final long PERSIST_RETRY_MILLIS = 200;
+
+    public record MediaReadyNotification(String messageId, String conversationId,
+                                         String thumbnailUrl, String previewUrl) {}
+
+    private final MediaService mediaService;
+    private final MessageRepository messageRepository;
+    private final ConversationMembershipCache membershipCache;
+    private final SessionResumeService sessionResumeService;
+    private final ThreadPoolTaskExecutor mediaExecutor;
+    // Created by the broker configuration
+    private final ObjectProvider<SimpMessagingTemplate> messagingTemplate;
+    private final int thumbnailSize;
+    private final int previewSize;
+    private final long maxPixels;
+
+    public MediaProcessingService(MediaService mediaService,
+                                  MessageRepository messageRepository,
+                                  ConversationMembershipCache membershipCache,
+                                  SessionResumeService sessionResumeService,
+                                  @Qualifier("chatMediaExecutor") ThreadPoolTaskExecutor mediaExecutor,
+                                  ObjectProvider<SimpMessagingTemplate> messagingTemplate,
+                                  @Value("${app.chat.media.thumbnail-size:256}") int thumbnailSize,
+                                  @Value("${app.chat.media.preview-size:1024}") int previewSize,
+                                  @Value("${app.chat.media.max-pixels:40000000}") long maxPixels) {
+        this.mediaService = mediaService;
+        this.messageRepository = messageRepository;
+        this.membershipCache = membershipCache;
+        this.sessionResumeService = sessionResumeService;
+        this.mediaExecutor = mediaExecutor;
+        this.messagingTemplate = messagingTemplate;
+        this.thumbnailSize = thumbnailSize;
+        this.previewSize = previewSize;
+        this.maxPixels = maxPixels;
+    }
+
+    /**
+     * Queue processing of a stored image message; after commit when called in a transaction
+     */
+    public void submit(String messageId, String conversationId, ConversationType conversationType, String mediaUrl) {
+        Path source = mediaService.resolveLocalFile(mediaUrl).orElse(null);
+        if (source == null) {
+            return;
+        }
+        Runnable job = () -> process(messageId, conversationId, conversationType, source);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    mediaExecutor.execute(job);
+                }
+            });
+        } else {
+            mediaExecutor.execute(job);
+        }
+    }
+
+    private void process(String messageId, String conversationId, ConversationType conversationType, Path source) {
+        try {
+            BufferedImage image = read(source);
+            if (image == null) {
+                return;
+            }
+            String baseName = stripExtension(source.getFileName().toString());
+            String thumbnailUrl = mediaService.storeDerived(
+                    encodeJpeg(scale(image, thumbnailSize), 0.7f), baseName + "_thumb.jpg");
+            String previewUrl = mediaService.storeDerived(
+                    encodeJpeg(scale(image, previewSize), 0.8f), baseName + "_preview.jpg");
+
+            if (!persist(messageId, thumbnailUrl, previewUrl)) {
+                log.debug("Message {} is gone, media variants not attached", messageId);
+                return;
+            }
+            notifyReady(new MediaReadyNotification(messageId, conversationId, thumbnailUrl, previewUrl), conversationType);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to process media of message {}: {}", messageId, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decode after checking the dimensions, so oversized images are never expanded in memory
+     */
+    private BufferedImage read(Path source) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null; // not an image format we can decode
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxPixels) {
+                    log.debug("Skipping {}: {} pixels", source, pixels);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Write-ahead log sends reach the messages table shortly after the send returns
+    private boolean persist(String messageId, String thumbnailUrl, String previewUrl) throws InterruptedException {
+        for (int attempt = 1; attempt <= PERSIST_ATTEMPTS; attempt++) {
+            if (messageRepository.attachMediaVariants(messageId, thumbnailUrl, previewUrl) > 0) {
+                return true;
+            }
+            Thread.sleep(PERSIST_RETRY_MILLIS);
+        }
+        return false;
+    }
+
+    private void notifyReady(MediaReadyNotification notification, ConversationType conversationType) {
+        SimpMessagingTemplate template = messagingTemplate.getObject();
+        if (conversationType == ConversationType.GROUP) {
+            String topic = ConversationTopicAuthorizer.topicFor(notification.conversationId()) + "/media";
+            sessionResumeService.recordTopic(notification.conversationId(), topic, notification);
+            template.convertAndSend(topic, notification);
+            return;
+        }
+        for (String participantId : membershipCache.getParticipantIds(notification.conversationId())) {
+            sessionResumeService.record(participantId, "/user/queue/media", notification);
+            template.convertAndSendToUser(participantId, "/queue/media", notification);
+        }
+    }
+
+    /**
+     * Fit within size x size keeping the aspect ratio, flattened onto white for JPEG
+     */
+    private static BufferedImage scale(BufferedImage image, int size) {
+        double factor = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+
+        // Halve in steps first; a single bilinear pass from a large original aliases badly
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        return draw(current, width, height);
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String stripExtension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+}
@@ -13,6 +13,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
+import java.util.Optional;
 import java.util.UUID;
 
 @Service
@@ -69,6 +70,32 @@ public class MediaService {
         return String.format("%s/%s/%s%s", type, userId, UUID.randomUUID(), extension);
     }
 
+    /**
+     * File behind a URL returned by {@link #uploadFile}, or empty for anything else
+     */
+    public Optional<Path> resolveLocalFile(String mediaUrl) {
+        String prefix = baseUrl + "/media/";
+        if (mediaUrl == null || !mediaUrl.startsWith(prefix)) {
+            return Optional.empty();
+        }
+        String fileName = mediaUrl.substring(prefix.length());
+        if (fileName.isEmpty() || fileName.contains("/") || fileName.contains("\\") || fileName.startsWith(".")) {
+            return Optional.empty();
+        }
+        Path filePath = Paths.get(UPLOAD_DIR).resolve(fileName);
+        return Files.isRegularFile(filePath) ? Optional.of(filePath) : Optional.empty();
+    }
+
+    /**
+     * Store generated bytes next to the uploads and return their URL
+     */
+    public String storeDerived(byte[] content, String fileName) throws IOException {
+        Path uploadPath = Paths.get(UPLOAD_DIR);
+        Files.createDirectories(uploadPath);
+        Files.write(uploadPath.resolve(fileName), content);
+        return String.format("%s/media/%s", baseUrl, fileName);
+    }
+
     private String getFileExtension(String fileName) {
         if (fileName == null || fileName.lastIndexOf(".") == -1) {
             return "";
@@ -0,0 +1,101 @@
+package com.ispilo.service;
+
+import com.ispilo.repository.MessageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodically moves messages older than app.chat.archive.older-than into the archive.
+ * Work is done one segment per transaction with a pause in between, so a run never
+ * holds long locks on messages. Runs execute on chatMaintenanceExecutor, not on the
+ * shared scheduler thread; a trigger while a run is still going is skipped.
+ */
+@Component
+@ConditionalOnProperty(name = "app.chat.archive.enabled", havingValue = "true")
+@Slf4j
+public class MessageArchiveJob {
+
+    private final MessageArchiveService archiveService;
+    private final MessageRepository messageRepository;
+    private final ThreadPoolTaskExecutor maintenanceExecutor;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${app.chat.archive.older-than:P180D}")
+    private Duration olderThan;
+
+    @Value("${app.chat.archive.max-conversations-per-run:1000}")
+    private int maxConversationsPerRun;
+
+    @Value("${app.chat.archive.max-segments-per-run:10000}")
+    private int maxSegmentsPerRun;
+
+    @Value("${app.chat.archive.pause-ms:20}")
+    private long pauseMillis;
+
+    public MessageArchiveJob(MessageArchiveService archiveService,
+                             MessageRepository messageRepository,
+                             @Qualifier("chatMaintenanceExecutor") ThreadPoolTaskExecutor maintenanceExecutor) {
+        this.archiveService = archiveService;
+        this.messageRepository = messageRepository;
+        this.maintenanceExecutor = maintenanceExecutor;
+    }
+
+    @Scheduled(fixedDelayString = "${app.chat.archive.interval-ms:3600000}",
+            initialDelayString = "${app.chat.archive.initial-delay-ms:300000}")
+    public void scheduleArchive() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            maintenanceExecutor.execute(() -> {
+                try {
+                    archive();
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            running.set(false);
+            log.warn("Message archive run skipped: {}", e.getMessage());
+        }
+    }
+
+    public void archive() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(olderThan);
+        List<String> conversationIds = messageRepository.findConversationIdsWithMessagesBefore(cutoff, maxConversationsPerRun);
+
+        int segments = 0;
+        long moved = 0;
+        try {
+            for (String conversationId : conversationIds) {
+                int archived;
+                do {
+                    if (segments >= maxSegmentsPerRun) {
+                        break;
+                    }
+                    archived = archiveService.archiveOldest(conversationId, cutoff);
+                    moved += archived;
+                    segments++;
+                    Thread.sleep(pauseMillis);
+                } while (archived == archiveService.getSegmentSize());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (moved > 0) {
+            log.info("Archived {} messages from {} conversations older than {}", moved, conversationIds.size(), cutoff);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.ispilo.service;
+
+import com.ispilo.model.dto.MessageCursor;
+import com.ispilo.model.entity.Conversation;
+import com.ispilo.model.entity.Message;
+import com.ispilo.model.entity.MessageArchiveSegment;
+import com.ispilo.model.entity.User;
+import com.ispilo.model.enums.MessageType;
+import com.ispilo.repository.ConversationRepository;
+import com.ispilo.repository.MessageArchiveSegmentRepository;
+import com.ispilo.repository.MessageRepository;
+import com.ispilo.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.ConcurrentLruCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for old conversation history.
+ * The archive job moves the oldest messages of a conversation into gzip segments
+ * in message_archive_segments; history reads continue into those segments once a
+ * cursor passes the hot window. Content stays encrypted with the conversation key.
+ * Deleted messages are dropped when archived, so delta sync only covers the hot window.
+ */
+@Service
+@Slf4j
+public class MessageArchiveService {
+
+    // 2 added the media variant URLs; version 1 segments still decode, without them
+    private static final int FORMAT_VERSION = 2;
+    private static final Comparator<ArchivedMessage> ORDER =
+            Comparator.comparing(ArchivedMessage::createdAt).thenComparing(ArchivedMessage::id);
+
+    record ArchivedMessage(String id, String clientMsgId, Long seq, String senderId, MessageType type,
+                           String content, String mediaUrl, String thumbnailUrl, String previewUrl,
+                           boolean read, LocalDateTime createdAt) {}
+
+    private final MessageArchiveSegmentRepository segmentRepository;
+    private final MessageRepository messageRepository;
+    private final ConversationRepository conversationRepository;
+    private final UserRepository userRepository;
+    private final MessageSearchIndex searchIndex;
+    private final int segmentSize;
+    // Decoded segments, oldest message first
+    private final ConcurrentLruCache<Long, List<ArchivedMessage>> segments;
+
+    public MessageArchiveService(MessageArchiveSegmentRepository segmentRepository,
+                                 MessageRepository messageRepository,
+                                 ConversationRepository conversationRepository,
+                                 UserRepository userRepository,
+                                 MessageSearchIndex searchIndex,
+                                 @Value("${app.chat.archive.segment-size:500}") int segmentSize,
+                                 @Value("${app.chat.archive.segment-cache-size:256}") int segmentCacheSize) {
+        this.segmentRepository = segmentRepository;
+        this.messageRepository = messageRepository;
+        this.conversationRepository = conversationRepository;
+        this.userRepository = userRepository;
+        this.searchIndex = searchIndex;
+        this.segmentSize = segmentSize;
+        this.segments = new ConcurrentLruCache<>(segmentCacheSize, id -> segmentRepository.findById(id)
+                .map(segment -> decode(segment.getPayload()))
+                .orElse(List.of()));
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Move up to one segment of a conversation's messages older than the cutoff
+     * into the archive. Returns the number of rows removed from messages.
+     */
+    @Transactional
+    public int archiveOldest(String conversationId, LocalDateTime cutoff) {
+        List<Message> batch = messageRepository.findOldestBefore(conversationId, cutoff, Limit.of(segmentSize));
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        List<ArchivedMessage> kept = batch.stream()
+                .filter(message -> !Boolean.TRUE.equals(message.getIsDeleted()))
+                .map(message -> new ArchivedMessage(message.getId(), message.getClientMsgId(), message.getSeq(),
+                        message.getSender().getId(), message.getType(), message.getContent(), message.getMediaUrl(),
+                        message.getThumbnailUrl(), message.getPreviewUrl(),
+                        Boolean.TRUE.equals(message.getIsRead()), message.getCreatedAt()))
+                .toList();
+        if (!kept.isEmpty()) {
+            segmentRepository.save(MessageArchiveSegment.builder()
+                    .conversationId(conversationId)
+                    .firstSeq(kept.stream().map(ArchivedMessage::seq).filter(seq -> seq != null).min(Long::compare).orElse(null))
+                    .lastSeq(kept.stream().map(ArchivedMessage::seq).filter(seq -> seq != null).max(Long::compare).orElse(null))
+                    .firstCreatedAt(kept.get(0).createdAt())
+                    .lastCreatedAt(kept.get(kept.size() - 1).createdAt())
+                    .messageCount(kept.size())
+                    .payload(encode(kept))
+                    .archivedAt(LocalDateTime.now())
+                    .build());
+        }
+
+        messageRepository.deleteAllInBatch(batch);
+        // Search covers the hot window only
+        searchIndex.remove(batch.stream().map(Message::getId).toList());
+        conversationRepository.advanceArchivedUntil(conversationId, batch.get(batch.size() - 1).getCreatedAt());
+        log.debug("Archived {} messages of conversation {}", batch.size(), conversationId);
+        return batch.size();
+    }
+
+    /**
+     * Archived messages older than the anchor, newest first. Without an anchor
+     * the newest archived messages are returned.
+     */
+    public List<Message> findBefore(Conversation conversation, MessageCursor anchor, int limit) {
+        LocalDateTime bound = anchor != null ? anchor.createdAt() : conversation.getArchivedUntil();
+        List<ArchivedMessage> found = new ArrayList<>(limit);
+        for (Long segmentId : segmentRepository.findIdsStartingAtOrBefore(conversation.getId(), bound, Limit.of(limit + 1))) {
+            List<ArchivedMessage> messages = segments.get(segmentId);
+            for (int i = messages.size() - 1; i >= 0 && found.size() < limit; i--) {
+                ArchivedMessage message = messages.get(i);
+                if (anchor == null || isBefore(message, anchor)) {
+                    found.add(message);
+                }
+            }
+            if (found.size() >= limit) {
+                break;
+            }
+        }
+        return toMessages(conversation, found);
+    }
+
+    /**
+     * Archived messages newer than the anchor, oldest first
+     */
+    public List<Message> findAfter(Conversation conversation, MessageCursor anchor, int limit) {
+        List<ArchivedMessage> found = new ArrayList<>(limit);
+        for (Long segmentId : segmentRepository.findIdsEndingAtOrAfter(conversation.getId(), anchor.createdAt(), Limit.of(limit + 1))) {
+            for (ArchivedMessage message : segments.get(segmentId)) {
+                if (found.size() >= limit) {
+                    break;
+                }
+                if (isAfter(message, anchor)) {
+                    found.add(message);
+                }
+            }
+            if (found.size() >= limit) {
+                break;
+            }
+        }
+        return toMessages(conversation, found);
+    }
+
+    private List<Message> toMessages(Conversation conversation, List<ArchivedMessage> archived) {
+        if (archived.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<String, User> senders = userRepository.findAllById(
+                        archived.stream().map(ArchivedMessage::senderId).distinct().toList()).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+
+        List<Message> messages = new ArrayList<>(archived.size());
+        for (ArchivedMessage message : archived) {
+            User sender = senders.get(message.senderId());
+            if (sender == null) {
+                continue; // sender account removed
+            }
+            messages.add(Message.builder()
+                    .id(message.id())
+                    .clientMsgId(message.clientMsgId())
+                    .seq(message.seq())
+                    .conversation(conversation)
+                    .sender(sender)
+                    .type(message.type())
+                    .content(message.content())
+                    .mediaUrl(message.mediaUrl())
+                    .thumbnailUrl(message.thumbnailUrl())
+                    .previewUrl(message.previewUrl())
+                    .isRead(message.read())
+                    .createdAt(message.createdAt())
+                    .build());
+        }
+        return messages;
+    }
+
+    private static boolean isBefore(ArchivedMessage message, MessageCursor anchor) {
+        int byTime = message.createdAt().compareTo(anchor.createdAt());
+        return byTime < 0 || (byTime == 0 && message.id().compareTo(anchor.id()) < 0);
+    }
+
+    private static boolean isAfter(ArchivedMessage message, MessageCursor anchor) {
+        int byTime = message.createdAt().compareTo(anchor.createdAt());
+        return byTime > 0 || (byTime == 0 && message.id().compareTo(anchor.id()) > 0);
+    }
+
+    private static byte[] encode(List<ArchivedMessage> messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(messages.size());
+            for (ArchivedMessage message : messages) {
+                out.writeUTF(message.id());
+                out.writeUTF(message.clientMsgId());
+                out.writeLong(message.seq() != null ? message.seq() : -1);
+                out.writeUTF(message.senderId());
+                out.writeUTF(message.type().name());
+                writeNullable(out, message.content());
+                writeNullable(out, message.mediaUrl());
+                writeNullable(out, message.thumbnailUrl());
+                writeNullable(out, message.previewUrl());
+                out.writeBoolean(message.read());
+                out.writeUTF(message.createdAt().toString());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode archive segment", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<ArchivedMessage> decode(byte[] payload) {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(payload)))) {
+            int version = in.readByte();
+            if (version < 1 || version > FORMAT_VERSION) {
+                throw new IllegalStateException("Unknown archive segment version " + version);
+            }
+            int count = in.readInt();
+            List<ArchivedMessage> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                String clientMsgId = in.readUTF();
+                long seq = in.readLong();
+                String senderId = in.readUTF();
+                MessageType type = MessageType.valueOf(in.readUTF());
+                String content = readNullable(in);
+                String mediaUrl = readNullable(in);
+                String thumbnailUrl = version >= 2 ? readNullable(in) : null;
+                String previewUrl = version >= 2 ? readNullable(in) : null;
+                messages.add(new ArchivedMessage(id, clientMsgId, seq >= 0 ? seq : null, senderId, type, content,
+                        mediaUrl, thumbnailUrl, previewUrl, in.readBoolean(), LocalDateTime.parse(in.readUTF())));
+            }
+            messages.sort(ORDER);
+            return List.copyOf(messages);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode archive segment", e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,112 @@
+package com.ispilo.service;
+
+import com.ispilo.model.dto.response.MessageResponse;
+import com.ispilo.model.entity.Message;
+import com.ispilo.security.MessageCryptoEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Batch decryption of a page of messages.
+ * Small pages decrypt on the calling thread; larger pages are split into
+ * contiguous chunks across the bounded chat crypto pool. Output order always
+ * matches input order, and a message that fails to decrypt becomes a
+ * placeholder instead of failing the page.
+ */
+@Service
+@Slf4j
+public class MessageDecryptionService {
+
+    public static final String DECRYPTION_FAILED_PLACEHOLDER = "[Encrypted message]";
+
+    private final MessageCryptoEngine cryptoEngine;
+    private final ThreadPoolTaskExecutor executor;
+    private final int parallelThreshold;
+    private final int minChunkSize;
+
+    public MessageDecryptionService(MessageCryptoEngine cryptoEngine,
+                                    @Qualifier("chatCryptoExecutor") ThreadPoolTaskExecutor executor,
+                                    @Value("${app.chat.crypto.parallel-threshold:16}") int parallelThreshold,
+                                    @Value("${app.chat.crypto.min-chunk-size:8}") int minChunkSize) {
+        this.cryptoEngine = cryptoEngine;
+        this.executor = executor;
+        this.parallelThreshold = parallelThreshold;
+        this.minChunkSize = Math.max(1, minChunkSize);
+    }
+
+    /**
+     * Decrypted contents in the same order as the given messages.
+     * Messages without content map to null; without a conversation key the
+     * stored content is returned unchanged.
+     */
+    public List<String> decryptAll(List<Message> messages, String conversationKey) {
+        int size = messages.size();
+        String[] contents = new String[size];
+
+        if (conversationKey == null) {
+            for (int i = 0; i < size; i++) {
+                contents[i] = messages.get(i).getContent();
+            }
+            return Arrays.asList(contents);
+        }
+
+        int chunks = size < parallelThreshold ? 1
+                : Math.min(executor.getMaxPoolSize() + 1, (size + minChunkSize - 1) / minChunkSize);
+        if (chunks <= 1) {
+            decryptRange(messages, conversationKey, contents, 0, size);
+            return Arrays.asList(contents);
+        }
+
+        int chunkSize = (size + chunks - 1) / chunks;
+        List<CompletableFuture<Void>> pending = new ArrayList<>(chunks - 1);
+        for (int start = chunkSize; start < size; start += chunkSize) {
+            int from = start;
+            int to = Math.min(size, start + chunkSize);
+            pending.add(CompletableFuture.runAsync(
+                    () -> decryptRange(messages, conversationKey, contents, from, to), executor));
+        }
+        // The caller decrypts the first chunk instead of idling
+        decryptRange(messages, conversationKey, contents, 0, Math.min(size, chunkSize));
+        CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+
+        return Arrays.asList(contents);
+    }
+
+    /**
+     * Map a page of messages to responses carrying decrypted content
+     */
+    public List<MessageResponse> toResponses(List<Message> messages, String conversationKey) {
+        List<String> contents = decryptAll(messages, conversationKey);
+
+        List<MessageResponse> responses = new ArrayList<>(contents.size());
+        for (int i = 0; i < contents.size(); i++) {
+            MessageResponse response = MessageResponse.fromEntity(messages.get(i));
+            response.setContent(contents.get(i));
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    private void decryptRange(List<Message> messages, String conversationKey, String[] contents, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Message message = messages.get(i);
+            if (message.getContent() == null) {
+                continue;
+            }
+            try {
+                contents[i] = cryptoEngine.decrypt(message.getContent(), conversationKey);
+            } catch (Exception e) {
+                log.error("Failed to decrypt message {}", message.getId(), e);
+                contents[i] = DECRYPTION_FAILED_PLACEHOLDER;
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.ispilo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Background writer for {@link MessageWriteAheadLog}.
+ * Each batch is one transaction: a JDBC batch of inserts into messages, then one
+ * conversation update per conversation and a JDBC batch of inbox counter updates.
+ * Records whose client id is already stored (flushed before a restart) and records whose
+ * conversation was deleted in the meantime are filtered out first.
+ * - A batch failing on the data itself (constraint violation, oversized value) is split
+ *   in halves until the bad record is alone; that record goes to the dead-letter file
+ *   with an error log, and the rest is flushed
+ * - Any other failure (database down, timeouts) retries the batch after a backoff
+ * conversations.last_seq moves after commit, up to what the log reports as contiguous.
+ */
+@Component
+@ConditionalOnProperty(name = "app.chat.wal.enabled", havingValue = "true")
+@Slf4j
+public class MessageLogFlusher {
+
+    private static final String INSERT_MESSAGE_SQL =
+            "INSERT INTO messages (id, client_msg_id, seq, conversation_id, sender_id, type, content, " +
+            "media_url, is_encrypted, encryption_algorithm, is_read, is_deleted, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, TRUE, 'AES-256-GCM', FALSE, FALSE, ?)";
+
+    private static final String STORED_CLIENT_IDS_SQL = "SELECT client_msg_id FROM messages WHERE client_msg_id IN (%s)";
+
+    private static final String EXISTING_CONVERSATIONS_SQL = "SELECT id FROM conversations WHERE id IN (%s)";
+
+    // Compared on last_message_at, not last_seq: a deletion can take a later sequence number
+    // than sends still in the log. MySQL applies SET assignments left to right, so
+    // last_message_at is compared before it moves.
+    private static final String UPDATE_CONVERSATION_SQL =
+            "UPDATE conversations SET " +
+            "last_message = CASE WHEN last_message_at IS NULL OR ? >= last_message_at THEN ? ELSE last_message END, " +
+            "last_message_at = CASE WHEN last_message_at IS NULL OR ? >= last_message_at THEN ? ELSE last_message_at END " +
+            "WHERE id = ?";
+
+    // Readers whose watermark already covers the message were recounted without it
+    private static final String UPDATE_INBOX_SQL =
+            "UPDATE conversation_inbox SET last_message_at = ?, last_message_preview = ?, " +
+            "unread_count = unread_count + CASE WHEN user_id = ? OR EXISTS (" +
+            "SELECT 1 FROM conversation_read_states r WHERE r.conversation_id = conversation_inbox.conversation_id " +
+            "AND r.user_id = conversation_inbox.user_id AND r.last_read_seq >= ?) THEN 0 ELSE 1 END " +
+            "WHERE conversation_id = ?";
+
+    private static final String ADVANCE_LAST_SEQ_SQL = "UPDATE conversations SET last_seq = GREATEST(last_seq, ?) WHERE id = ?";
+
+    private final MessageWriteAheadLog writeAheadLog;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final Path deadLetterFile;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long retryBackoffMillis;
+
+    // conversation id -> last_seq not written yet; only touched by the flusher thread
+    private final Map<String, Long> lastSeqs = new HashMap<>();
+
+    private volatile boolean running;
+    private Thread worker;
+
+    public MessageLogFlusher(MessageWriteAheadLog writeAheadLog,
+                             JdbcTemplate jdbcTemplate,
+                             TransactionTemplate transactionTemplate,
+                             ObjectMapper objectMapper,
+                             @Value("${app.chat.wal.dead-letter-file:./data/message-wal/dead-letter.jsonl}") String deadLetterFile,
+                             @Value("${app.chat.wal.batch-size:500}") int batchSize,
+                             @Value("${app.chat.wal.flush-interval-ms:20}") long flushIntervalMillis,
+                             @Value("${app.chat.wal.retry-backoff-ms:1000}") long retryBackoffMillis) {
+        this.writeAheadLog = writeAheadLog;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.deadLetterFile = Path.of(deadLetterFile);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    @PostConstruct
+    void start() {
+        running = true;
+        worker = new Thread(this::run, "chat-wal-flusher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        worker.join(10_000);
+        if (worker.isAlive()) {
+            log.warn("Write-ahead log flusher did not stop in time; remaining records replay on next start");
+        }
+    }
+
+    private void run() {
+        List<MessageWriteAheadLog.Pending> batch = new ArrayList<>(batchSize);
+        while (running || writeAheadLog.hasPending() || !batch.isEmpty() || !lastSeqs.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    writeAheadLog.drain(batch, batchSize, flushIntervalMillis);
+                }
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+                advanceLastSeqs();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Failed to flush {} logged messages, retrying: {}", batch.size(), e.getMessage());
+                if (!running) {
+                    return;
+                }
+                try {
+                    Thread.sleep(retryBackoffMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Persist and release the batch, bisecting around records the database rejects.
+     * Released records are removed from the front of the batch, so after a retryable
+     * failure the batch holds exactly what is left.
+     */
+    private void flush(List<MessageWriteAheadLog.Pending> batch) {
+        Deque<List<MessageWriteAheadLog.Pending>> parts = new ArrayDeque<>();
+        parts.push(List.copyOf(batch));
+        while (!parts.isEmpty()) {
+            List<MessageWriteAheadLog.Pending> part = parts.pop();
+            try {
+                persist(part);
+            } catch (NonTransientDataAccessException e) {
+                if (e instanceof DataAccessResourceFailureException) {
+                    throw e;
+                }
+                if (part.size() > 1) {
+                    int half = part.size() / 2;
+                    parts.push(part.subList(half, part.size()));
+                    parts.push(part.subList(0, half));
+                    continue;
+                }
+                deadLetter(part.get(0).entry(), e);
+            }
+            writeAheadLog.release(part).forEach((conversationId, seq) -> lastSeqs.merge(conversationId, seq, Math::max));
+            batch.subList(0, part.size()).clear();
+        }
+    }
+
+    /**
+     * Move conversations.last_seq up to the contiguously stored sequence numbers; a failure
+     * leaves them to the next round
+     */
+    private void advanceLastSeqs() {
+        if (lastSeqs.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, Long>> updates = new ArrayList<>(lastSeqs.entrySet());
+        jdbcTemplate.batchUpdate(ADVANCE_LAST_SEQ_SQL, updates, updates.size(), (ps, update) -> {
+            ps.setLong(1, update.getValue());
+            ps.setString(2, update.getKey());
+        });
+        lastSeqs.clear();
+    }
+
+    /**
+     * Keep a record the database will not take out of the way of the ones behind it
+     */
+    private void deadLetter(MessageWriteAheadLog.Entry entry, RuntimeException cause) {
+        log.error("Moving logged message {} of conversation {} to {}: {}",
+                entry.id(), entry.conversationId(), deadLetterFile, cause.getMessage());
+        try {
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("entry", entry);
+            record.put("error", cause.getMessage());
+            byte[] line = (objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+            Path parent = deadLetterFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (FileChannel channel = FileChannel.open(deadLetterFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.wrap(line));
+                // On disk before the log lets go of it
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write dead-letter file " + deadLetterFile, e);
+        }
+    }
+
+    private void persist(List<MessageWriteAheadLog.Pending> batch) {
+        List<MessageWriteAheadLog.Entry> sorted = batch.stream()
+                .map(MessageWriteAheadLog.Pending::entry)
+                .sorted(Comparator.comparing(MessageWriteAheadLog.Entry::conversationId)
+                        .thenComparingLong(MessageWriteAheadLog.Entry::seq))
+                .toList();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            List<MessageWriteAheadLog.Entry> entries = unflushed(sorted);
+            if (entries.isEmpty()) {
+                return;
+            }
+            int[][] counts = jdbcTemplate.batchUpdate(INSERT_MESSAGE_SQL, entries, entries.size(), (ps, entry) -> {
+                ps.setString(1, entry.id());
+                ps.setString(2, entry.clientMsgId());
+                ps.setLong(3, entry.seq());
+                ps.setString(4, entry.conversationId());
+                ps.setString(5, entry.senderId());
+                ps.setString(6, entry.type().name());
+                ps.setString(7, entry.content());
+                ps.setString(8, entry.mediaUrl());
+                ps.setTimestamp(9, Timestamp.valueOf(entry.createdAt()));
+            });
+
+            // Latest entry per conversation
+            Map<String, MessageWriteAheadLog.Entry> latest = new LinkedHashMap<>();
+            for (int i = 0; i < entries.size(); i++) {
+                int count = counts[0][i];
+                if (count != 1 && count != Statement.SUCCESS_NO_INFO) {
+                    throw new IllegalStateException("Unexpected batch result " + count);
+                }
+                MessageWriteAheadLog.Entry entry = entries.get(i);
+                latest.put(entry.conversationId(), entry);
+            }
+
+            jdbcTemplate.batchUpdate(UPDATE_CONVERSATION_SQL, latest.values(), latest.size(), (ps, entry) -> {
+                Timestamp sentAt = Timestamp.valueOf(entry.createdAt());
+                ps.setTimestamp(1, sentAt);
+                ps.setString(2, entry.preview());
+                ps.setTimestamp(3, sentAt);
+                ps.setTimestamp(4, sentAt);
+                ps.setString(5, entry.conversationId());
+            });
+
+            // Per entry, in sequence order, since each reader's watermark decides its own counter
+            jdbcTemplate.batchUpdate(UPDATE_INBOX_SQL, entries, entries.size(), (ps, entry) -> {
+                ps.setTimestamp(1, Timestamp.valueOf(entry.createdAt()));
+                ps.setString(2, entry.preview());
+                ps.setString(3, entry.senderId());
+                ps.setLong(4, entry.seq());
+                ps.setString(5, entry.conversationId());
+            });
+        });
+        log.debug("Flushed {} logged messages", sorted.size());
+    }
+
+    /**
+     * Drop entries already stored before a restart and entries of conversations deleted since
+     */
+    private List<MessageWriteAheadLog.Entry> unflushed(List<MessageWriteAheadLog.Entry> entries) {
+        Set<String> stored = new HashSet<>(selectIn(STORED_CLIENT_IDS_SQL,
+                entries.stream().map(MessageWriteAheadLog.Entry::clientMsgId).distinct().toList()));
+        Set<String> conversations = new HashSet<>(selectIn(EXISTING_CONVERSATIONS_SQL,
+                entries.stream().map(MessageWriteAheadLog.Entry::conversationId).distinct().toList()));
+
+        List<MessageWriteAheadLog.Entry> remaining = new ArrayList<>(entries.size());
+        for (MessageWriteAheadLog.Entry entry : entries) {
+            if (stored.contains(entry.clientMsgId())) {
+                continue;
+            }
+            if (!conversations.contains(entry.conversationId())) {
+                log.warn("Dropping logged message {}: conversation {} no longer exists", entry.id(), entry.conversationId());
+                continue;
+            }
+            remaining.add(entry);
+        }
+        return remaining;
+    }
+
+    private List<String> selectIn(String sql, List<String> values) {
+        String placeholders = String.join(",", Collections.nCopies(values.size(), "?"));
+        return jdbcTemplate.queryForList(String.format(sql, placeholders), String.class, values.toArray());
+    }
+}
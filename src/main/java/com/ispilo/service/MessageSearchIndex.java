@@ -0,0 +1,171 @@
+package com.ispilo.service;
+
+import com.ispilo.model.dto.MessageCursor;
+import com.ispilo.repository.MessageSearchTokenRepository;
+import com.ispilo.repository.MessageSearchTokenRepository.SearchHitView;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.sql.Timestamp;
+import java.text.Normalizer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Keyword search over encrypted messages through a blind index (app.chat.search.enabled).
+ * At send time each distinct normalized word of a text message becomes an HMAC token
+ * keyed by the server's index key and the conversation id, stored in message_search_tokens.
+ * A search hashes the query words the same way and looks the tokens up, so only the
+ * matching messages are read and decrypted. Whole words only, no prefixes; messages
+ * sent before the index was enabled are not indexed.
+ */
+@Component
+@Slf4j
+public class MessageSearchIndex {
+
+    private static final String INSERT_TOKEN_SQL =
+            "INSERT IGNORE INTO message_search_tokens (conversation_id, message_id, token, created_at) VALUES (?, ?, ?, ?)";
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final int TOKEN_BYTES = 16;
+    private static final int MIN_WORD_LENGTH = 2;
+    private static final int MAX_WORD_LENGTH = 64;
+
+    private final MessageSearchTokenRepository tokenRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ThreadPoolTaskExecutor fanoutExecutor;
+    private final boolean enabled;
+    private final int maxTokensPerMessage;
+    private final ThreadLocal<Mac> macs;
+
+    public MessageSearchIndex(MessageSearchTokenRepository tokenRepository,
+                              JdbcTemplate jdbcTemplate,
+                              @Qualifier("chatFanoutExecutor") ThreadPoolTaskExecutor fanoutExecutor,
+                              @Value("${app.chat.search.enabled:false}") boolean enabled,
+                              @Value("${app.chat.search.index-key:}") String indexKeyBase64,
+                              @Value("${app.chat.search.max-tokens-per-message:200}") int maxTokensPerMessage) {
+        this.tokenRepository = tokenRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.fanoutExecutor = fanoutExecutor;
+        this.enabled = enabled;
+        this.maxTokensPerMessage = maxTokensPerMessage;
+        if (enabled && indexKeyBase64.isBlank()) {
+            throw new IllegalStateException("app.chat.search.index-key is required when message search is enabled");
+        }
+        SecretKeySpec indexKey = enabled ? new SecretKeySpec(Base64.getDecoder().decode(indexKeyBase64), "HmacSHA256") : null;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(indexKey);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 not available", e);
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Index a message in the caller's transaction
+     */
+    public void index(String conversationId, String messageId, String plainText, LocalDateTime createdAt) {
+        if (!enabled || plainText == null) {
+            return;
+        }
+        List<String> tokens = new ArrayList<>(tokensFor(conversationId, plainText, maxTokensPerMessage));
+        if (tokens.isEmpty()) {
+            return;
+        }
+        Timestamp created = Timestamp.valueOf(createdAt != null ? createdAt : LocalDateTime.now());
+        jdbcTemplate.batchUpdate(INSERT_TOKEN_SQL, tokens, tokens.size(), (ps, token) -> {
+            ps.setString(1, conversationId);
+            ps.setString(2, messageId);
+            ps.setString(3, token);
+            ps.setTimestamp(4, created);
+        });
+    }
+
+    /**
+     * Index off the caller's thread, for sends that do not write the database themselves
+     */
+    public void indexLater(String conversationId, String messageId, String plainText, LocalDateTime createdAt) {
+        if (!enabled || plainText == null) {
+            return;
+        }
+        fanoutExecutor.execute(() -> {
+            try {
+                index(conversationId, messageId, plainText, createdAt);
+            } catch (RuntimeException e) {
+                log.warn("Failed to index message {}: {}", messageId, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Messages containing every word of the query, newest first, older than the cursor if one is given
+     */
+    public List<SearchHitView> search(String conversationId, String query, MessageCursor before, int limit) {
+        Set<String> tokens = tokensFor(conversationId, query, 16);
+        if (tokens.isEmpty()) {
+            return List.of();
+        }
+        if (before == null) {
+            return tokenRepository.findMessagesMatchingAll(conversationId, tokens, tokens.size(), limit);
+        }
+        return tokenRepository.findMessagesMatchingAllBefore(conversationId, tokens, tokens.size(),
+                before.createdAt(), before.id(), limit);
+    }
+
+    public void remove(Collection<String> messageIds) {
+        if (enabled && !messageIds.isEmpty()) {
+            tokenRepository.deleteByMessageIds(messageIds);
+        }
+    }
+
+    private Set<String> tokensFor(String conversationId, String text, int maxTokens) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String word : WORD_SEPARATOR.split(normalize(text))) {
+            if (word.length() < MIN_WORD_LENGTH || word.length() > MAX_WORD_LENGTH) {
+                continue;
+            }
+            tokens.add(token(conversationId, word));
+            if (tokens.size() >= maxTokens) {
+                break;
+            }
+        }
+        return tokens;
+    }
+
+    // Case- and accent-insensitive: "Café" and "cafe" produce the same token
+    private static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private String token(String conversationId, String word) {
+        Mac mac = macs.get();
+        mac.update(conversationId.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        byte[] digest = mac.doFinal(word.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest, 0, TOKEN_BYTES);
+    }
+}
@@ -1,172 +1,590 @@
 package com.ispilo.service;
 
 import com.ispilo.exception.BadRequestException;
+import com.ispilo.exception.ConflictException;
 import com.ispilo.exception.NotFoundException;
 import com.ispilo.exception.UnauthorizedException;
 import com.ispilo.model.dto.request.SendMessageRequest;
+import com.ispilo.model.dto.MessageCursor;
+import com.ispilo.model.dto.response.CursorPageResponse;
 import com.ispilo.model.dto.response.MessageResponse;
 import com.ispilo.model.entity.Conversation;
 import com.ispilo.model.entity.Message;
 import com.ispilo.model.entity.User;
 import com.ispilo.model.enums.MessageType;
+import com.ispilo.model.event.MessageSentEvent;
+import com.ispilo.model.event.MessagesReadEvent;
+import com.ispilo.repository.ConversationInboxRepository;
 import com.ispilo.repository.ConversationRepository;
 import com.ispilo.repository.MessageRepository;
+import com.ispilo.repository.MessageSearchTokenRepository.SearchHitView;
 import com.ispilo.repository.UserRepository;
+import com.ispilo.security.MessageCryptoEngine;
 import com.ispilo.security.SecurityEncryptionService;
+import com.ispilo.util.SingleWriterLanes;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.Page;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class MessageService {
 
+    // Message.content column length, which holds the encrypted value
+    private static final int MAX_STORED_CONTENT_LENGTH = 2000;
+
     private final MessageRepository messageRepository;
     private final ConversationRepository conversationRepository;
+    private final ConversationInboxRepository inboxRepository;
     private final UserRepository userRepository;
     private final SecurityEncryptionService encryptionService;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final MessageCryptoEngine cryptoEngine;
+    private final MessageDecryptionService decryptionService;
+    private final ReadWatermarkService readWatermarkService;
+    private final ConversationMembershipCache membershipCache;
+    private final ClientMsgIdDeduplicator deduplicator;
+    private final MessageArchiveService archiveService;
+    private final MessageSearchIndex searchIndex;
+    private final MediaProcessingService mediaProcessingService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final TransactionTemplate transactionTemplate;
+    // Present only with app.chat.wal.enabled
+    private final Optional<MessageWriteAheadLog> writeAheadLog;
+
+    @Value("${app.max-page-size:100}")
+    private int maxPageSize;
+
+    @Value("${app.chat.lanes.enabled:true}")
+    private boolean lanesEnabled;
+
+    @Value("${app.chat.lanes.count:0}")
+    private int laneCount;
+
+    @Value("${app.chat.lanes.queue-capacity:10000}")
+    private int laneQueueCapacity;
+
+    @Value("${app.chat.lanes.max-batch:64}")
+    private int laneMaxBatch;
+
+    @Value("${app.chat.lanes.send-timeout-ms:10000}")
+    private long laneSendTimeoutMs;
+
+    @Value("${app.chat.wal.flush-wait-ms:10000}")
+    private long walFlushWaitMs;
+
+    // Sends of one conversation are written by one lane thread, in order and in batches
+    private SingleWriterLanes<PendingSend> lanes;
+
+    private record ReservedSeq(String conversationId, long seq) {}
+
+    private static final class PendingSend {
+        private final String userId;
+        private final SendMessageRequest request;
+        private final CompletableFuture<MessageResponse> result = new CompletableFuture<>();
+        // Set once written; released to the caller after commit
+        private MessageResponse response;
+
+        private PendingSend(String userId, SendMessageRequest request) {
+            this.userId = userId;
+            this.request = request;
+        }
+    }
+
+    @PostConstruct
+    void startLanes() {
+        // The write-ahead log has its own single flusher
+        if (lanesEnabled && writeAheadLog.isEmpty()) {
+            int count = laneCount > 0 ? laneCount : 2 * Runtime.getRuntime().availableProcessors();
+            lanes = new SingleWriterLanes<>("chat-send-lane", count, laneQueueCapacity, laneMaxBatch, this::writeSends);
+            log.info("Writing sends through {} conversation lanes", count);
+        }
+    }
+
+    @PreDestroy
+    void stopLanes() {
+        if (lanes != null) {
+            lanes.close();
+        }
+    }
 
-    @Transactional
     public MessageResponse sendMessage(String userId, SendMessageRequest request) {
         log.debug("Sending message from user {} to conversation {}", userId, request.getConversationId());
 
-        // 1. Idempotency Check: Avoid sending the same message multiple times
-        Optional<Message> existingMessage = messageRepository.findByClientMsgId(request.getClientMsgId());
-        if (existingMessage.isPresent()) {
-            log.info("Duplicate message detected for clientMsgId: {}. Returning existing message.", request.getClientMsgId());
-            return MessageResponse.fromEntity(existingMessage.get());
+        // 1. Idempotency Check: Avoid sending the same message multiple times.
+        // Only ids the deduplicator has seen recently cost a database lookup.
+        if (deduplicator.mightBeDuplicate(request.getClientMsgId())) {
+            // Mapped inside a transaction: the sender is lazy and STOMP sends have no open session
+            MessageResponse existing = transactionTemplate.execute(status -> findExistingMessage(request.getClientMsgId())
+                    .map(MessageResponse::fromEntity)
+                    .orElse(null));
+            if (existing != null) {
+                log.info("Duplicate message detected for clientMsgId: {}. Returning existing message.", request.getClientMsgId());
+                return existing;
+            }
         }
 
-        // Validate conversation exists
-        Conversation conversation = conversationRepository.findById(request.getConversationId())
-                .orElseThrow(() -> new NotFoundException("Conversation not found"));
+        if (writeAheadLog.isPresent()) {
+            return sendThroughLog(writeAheadLog.get(), userId, request);
+        }
+        PendingSend pending = new PendingSend(userId, request);
+        if (lanes == null) {
+            writeSends(List.of(pending));
+        } else if (!submitToLane(pending)) {
+            throw new IllegalStateException("Too many messages queued for this conversation, try again");
+        }
+        return awaitResult(pending);
+    }
 
-        // Validate user is participant
-        User sender = userRepository.findById(userId)
-                .orElseThrow(() -> new NotFoundException("User not found"));
+    private boolean submitToLane(PendingSend pending) {
+        try {
+            return lanes.submit(pending.request.getConversationId(), pending, laneSendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing message", e);
+        }
+    }
 
-        if (!conversation.getParticipants().contains(sender)) {
-            throw new UnauthorizedException("User is not a participant in this conversation");
+    private MessageResponse awaitResult(PendingSend pending) {
+        try {
+            return pending.result.get(laneSendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Failed to send message", e.getCause());
+        } catch (TimeoutException e) {
+            // Still queued; it will be written and a client retry deduplicated against it
+            throw new IllegalStateException("Timed out waiting for the message to be written", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sending message", e);
         }
+    }
 
-        // Validate message content
-        if (request.getType() == MessageType.TEXT &&
-            (request.getContent() == null || request.getContent().trim().isEmpty())) {
-            throw new BadRequestException("Text message content cannot be empty");
+    /**
+     * Lane handler: one transaction for the whole batch, results released after commit.
+     * If the batch fails as a whole, each send still pending is retried on its own so one
+     * bad message cannot fail its neighbours.
+     */
+    private void writeSends(List<PendingSend> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> writeBatch(batch));
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                PendingSend pending = batch.get(0);
+                MessageResponse existing = e instanceof DataIntegrityViolationException
+                        ? findStoredResponse(pending.request.getClientMsgId()) : null;
+                if (existing != null) {
+                    // The deduplicator missed it (restart, rotated window, other node): answer with the original
+                    log.info("Duplicate message detected for clientMsgId: {}. Returning existing message.",
+                            pending.request.getClientMsgId());
+                    pending.result.complete(existing);
+                } else {
+                    pending.result.completeExceptionally(e);
+                }
+                return;
+            }
+            log.warn("Batch of {} messages failed, retrying one by one: {}", batch.size(), e.getMessage());
+            for (PendingSend pending : batch) {
+                if (!pending.result.isDone()) {
+                    writeSends(List.of(pending));
+                }
+            }
+            return;
         }
+        for (PendingSend pending : batch) {
+            if (pending.response != null) {
+                pending.result.complete(pending.response);
+            }
+        }
+    }
 
-        // Encrypt message content if it's text
-        String encryptedContent = null;
-        if (request.getContent() != null && !request.getContent().trim().isEmpty()) {
-            String conversationKey = conversation.getEncryptionKey();
-            if (conversationKey == null) {
-                // Generate a new AES key if one doesn't exist for the conversation
-                conversationKey = encryptionService.aesKeyToString(encryptionService.generateAESKey());
-                conversation.setEncryptionKey(conversationKey);
-                conversationRepository.save(conversation);
+    private MessageResponse findStoredResponse(String clientMsgId) {
+        return transactionTemplate.execute(status -> messageRepository.findByClientMsgId(clientMsgId)
+                .map(MessageResponse::fromEntity)
+                .orElse(null));
+    }
+
+    /**
+     * Persist queued sends. Each conversation's row is locked and updated once for all of
+     * its messages in the batch, and the inbox gets one update per distinct sender.
+     * Sends that fail validation are failed individually and take no sequence number.
+     */
+    private void writeBatch(List<PendingSend> batch) {
+        Map<String, List<PendingSend>> byConversation = new TreeMap<>();
+        for (PendingSend pending : batch) {
+            pending.response = null;
+            byConversation.computeIfAbsent(pending.request.getConversationId(), id -> new ArrayList<>()).add(pending);
+        }
+        Map<String, User> senders = new HashMap<>();
+        // Sorted ids: locks are always taken in the same order, also across nodes
+        for (Map.Entry<String, List<PendingSend>> entry : byConversation.entrySet()) {
+            Optional<Conversation> locked = conversationRepository.findByIdForUpdate(entry.getKey());
+            if (locked.isEmpty()) {
+                entry.getValue().forEach(pending ->
+                        pending.result.completeExceptionally(new NotFoundException("Conversation not found")));
+                continue;
             }
-            // Use AES encryption
-            encryptedContent = encryptionService.encryptWithAES(request.getContent(), conversationKey);
+            writeConversationBatch(locked.get(), entry.getValue(), senders);
         }
+    }
 
-        // Create message
-        Message message = Message.builder()
-                .clientMsgId(request.getClientMsgId())
-                .conversation(conversation)
-                .sender(sender)
-                .type(request.getType())
-                .content(encryptedContent)
-                .mediaUrl(request.getMediaUrl())
-                .isRead(false)
-                .build();
+    private void writeConversationBatch(Conversation conversation, List<PendingSend> sends, Map<String, User> senders) {
+        long seq = conversation.getLastSeq();
+        PendingSend last = null;
+        // senderId -> messages written, for the unread counters of everyone else
+        Map<String, Integer> sentBy = new LinkedHashMap<>();
+        Map<String, PendingSend> byClientMsgId = new HashMap<>();
+
+        for (PendingSend pending : sends) {
+            SendMessageRequest request = pending.request;
+            PendingSend earlier = byClientMsgId.get(request.getClientMsgId());
+            if (earlier != null) {
+                // A retry queued behind its original in the same batch
+                pending.response = earlier.response;
+                continue;
+            }
+            try {
+                if (!membershipCache.isParticipant(conversation.getId(), pending.userId)) {
+                    throw new UnauthorizedException("User is not a participant in this conversation");
+                }
+                validateContent(request);
+                if (deduplicator.mightBeDuplicate(request.getClientMsgId())) {
+                    // Written by an earlier batch while this one was queued
+                    Optional<Message> existing = findExistingMessage(request.getClientMsgId());
+                    if (existing.isPresent()) {
+                        pending.response = MessageResponse.fromEntity(existing.get());
+                        byClientMsgId.put(request.getClientMsgId(), pending);
+                        continue;
+                    }
+                }
+            } catch (RuntimeException e) {
+                pending.result.completeExceptionally(e);
+                continue;
+            }
+            User sender = senders.get(pending.userId);
+            if (sender == null) {
+                sender = userRepository.findById(pending.userId).orElse(null);
+                if (sender == null) {
+                    pending.result.completeExceptionally(new NotFoundException("User not found"));
+                    continue;
+                }
+                senders.put(pending.userId, sender);
+            }
 
-        message = messageRepository.save(message);
+            // Encrypt message content if it's text
+            String encryptedContent = null;
+            if (hasText(request)) {
+                String conversationKey = conversation.getEncryptionKey();
+                if (conversationKey == null) {
+                    // Generate a new AES key if one doesn't exist for the conversation
+                    conversationKey = encryptionService.aesKeyToString(encryptionService.generateAESKey());
+                    conversation.setEncryptionKey(conversationKey);
+                }
+                // Use AES-256-GCM encryption
+                encryptedContent = cryptoEngine.encrypt(request.getContent(), conversationKey);
+            }
 
-        // Update conversation last message
-        String lastMsgPreview = request.getContent() != null ?
-                request.getContent().substring(0, Math.min(100, request.getContent().length())) :
-                "[" + request.getType().name().toLowerCase() + "]";
+            Message message = Message.builder()
+                    .clientMsgId(request.getClientMsgId())
+                    .seq(++seq)
+                    .conversation(conversation)
+                    .sender(sender)
+                    .type(request.getType())
+                    .content(encryptedContent)
+                    .mediaUrl(request.getMediaUrl())
+                    .isRead(false)
+                    .build();
+
+            message = messageRepository.save(message);
+            deduplicator.record(message.getClientMsgId(), message.getId());
+            if (hasText(request)) {
+                searchIndex.index(conversation.getId(), message.getId(), searchableText(request), message.getCreatedAt());
+            }
+            if (request.getType() == MessageType.IMAGE && request.getMediaUrl() != null) {
+                mediaProcessingService.submit(message.getId(), conversation.getId(), conversation.getType(), request.getMediaUrl());
+            }
+
+            MessageResponse response = MessageResponse.fromEntity(message);
+            response.setContent(request.getContent()); // Return original content
+            pending.response = response;
+            byClientMsgId.put(request.getClientMsgId(), pending);
+            sentBy.merge(pending.userId, 1, Integer::sum);
+            last = pending;
+
+            // Participants are notified after commit, in sequence order
+            eventPublisher.publishEvent(new MessageSentEvent(conversation.getId(), conversation.getType(), pending.userId, response));
+        }
+
+        if (last == null) {
+            return;
+        }
+        // Update conversation last message, once for the batch
+        String lastMsgPreview = preview(last.request);
+        LocalDateTime sentAt = LocalDateTime.now();
         conversation.setLastMessage(lastMsgPreview);
-        conversation.setLastMessageAt(LocalDateTime.now());
+        conversation.setLastMessageAt(sentAt);
+        conversation.setLastSeq(seq);
         conversationRepository.save(conversation);
+        sentBy.forEach((senderId, count) ->
+                inboxRepository.recordMessages(conversation.getId(), senderId, sentAt, lastMsgPreview, count));
+    }
 
-        // Create response
-        MessageResponse response = MessageResponse.fromEntity(message);
-        response.setContent(request.getContent()); // Return original content
+    /**
+     * Write-ahead log mode: no database transaction on the send path. The message is
+     * acknowledged and pushed once its log record is on disk; the flusher persists it shortly after.
+     */
+    private MessageResponse sendThroughLog(MessageWriteAheadLog wal, String userId, SendMessageRequest request) {
+        Conversation conversation = conversationRepository.findById(request.getConversationId())
+                .orElseThrow(() -> new NotFoundException("Conversation not found"));
 
-        // Notify participants
-        notifyParticipants(conversation, response, userId);
+        if (!membershipCache.isParticipant(conversation.getId(), userId)) {
+            throw new UnauthorizedException("User is not a participant in this conversation");
+        }
+
+        User sender = userRepository.findById(userId)
+                .orElseThrow(() -> new NotFoundException("User not found"));
 
+        validateContent(request);
+
+        String encryptedContent = null;
+        if (hasText(request)) {
+            String conversationKey = conversation.getEncryptionKey();
+            if (conversationKey == null) {
+                // First writer wins; everyone re-reads the stored key
+                conversationRepository.initEncryptionKey(conversation.getId(),
+                        encryptionService.aesKeyToString(encryptionService.generateAESKey()));
+                conversationKey = conversationRepository.findEncryptionKey(conversation.getId())
+                        .orElseThrow(() -> new NotFoundException("Conversation not found"));
+            }
+            encryptedContent = cryptoEngine.encrypt(request.getContent(), conversationKey);
+        }
+
+        String messageId = UUID.randomUUID().toString();
+        MessageWriteAheadLog.Entry entry = wal.append(messageId, request.getClientMsgId(), conversation.getId(),
+                userId, request.getType(), encryptedContent, request.getMediaUrl(), preview(request));
+        MessageResponse response = MessageResponse.fromEntity(toMessage(entry, conversation, sender));
+        if (!entry.id().equals(messageId)) {
+            // A concurrent retry logged this client id first
+            log.info("Duplicate message detected for clientMsgId: {}. Returning pending message.", request.getClientMsgId());
+            return response;
+        }
+        deduplicator.record(entry.clientMsgId(), entry.id());
+        if (hasText(request)) {
+            searchIndex.indexLater(conversation.getId(), entry.id(), searchableText(request), entry.createdAt());
+        }
+        if (request.getType() == MessageType.IMAGE && request.getMediaUrl() != null) {
+            mediaProcessingService.submit(entry.id(), conversation.getId(), conversation.getType(), request.getMediaUrl());
+        }
+
+        response.setContent(request.getContent()); // Return original content
+        eventPublisher.publishEvent(new MessageSentEvent(conversation.getId(), conversation.getType(), userId, response));
         return response;
     }
 
+    /**
+     * Keyset history, newest first. With neither cursor the latest messages are returned;
+     * "before" walks back into history and "after" catches up on newer messages.
+     * A positive page without cursors falls back to offset paging for older clients.
+     */
     @Transactional(readOnly = true)
-    public Page<MessageResponse> getConversationMessages(String userId, String conversationId,
-                                                         int page, int size) {
+    public CursorPageResponse<MessageResponse> getConversationMessages(String userId, String conversationId,
+                                                                       String before, String after,
+                                                                       int page, int size) {
         Conversation conversation = conversationRepository.findById(conversationId)
                 .orElseThrow(() -> new NotFoundException("Conversation not found"));
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new NotFoundException("User not found"));
-
-        if (!conversation.getParticipants().contains(user)) {
+        if (!membershipCache.isParticipant(conversationId, userId)) {
             throw new UnauthorizedException("User is not a participant in this conversation");
         }
+        if (before != null && after != null) {
+            throw new BadRequestException("Use either 'before' or 'after', not both");
+        }
 
-        Pageable pageable = PageRequest.of(page, size, Sort.by("createdAt").descending());
-        Page<Message> messages = messageRepository.findByConversationId(conversationId, pageable);
-
-        String conversationKey = conversation.getEncryptionKey();
+        int limit = Math.max(1, Math.min(size, maxPageSize));
+        // Fetch one extra row to learn whether more exist without counting
+        Limit fetch = Limit.of(limit + 1);
+        MessageCursor afterCursor = after != null ? MessageCursor.decode(after) : null;
+        MessageCursor beforeCursor = before != null ? MessageCursor.decode(before) : null;
+        boolean offsetPage = before == null && after == null && page > 0;
+        List<Message> messages;
+        if (afterCursor != null) {
+            messages = new ArrayList<>(messageRepository.findAfter(conversationId, afterCursor.createdAt(), afterCursor.id(), fetch));
+        } else if (beforeCursor != null) {
+            messages = new ArrayList<>(messageRepository.findBefore(conversationId, beforeCursor.createdAt(), beforeCursor.id(), fetch));
+        } else if (offsetPage) {
+            messages = messageRepository.findPageWithoutCount(conversationId, PageRequest.of(page, limit));
+        } else {
+            messages = new ArrayList<>(messageRepository.findLatest(conversationId, fetch));
+        }
 
-        return messages.map(message -> {
-            MessageResponse response = MessageResponse.fromEntity(message);
-            if (message.getContent() != null && conversationKey != null) {
-                try {
-                    response.setContent(encryptionService.decryptWithAES(message.getContent(), conversationKey));
-                } catch (Exception e) {
-                    log.error("Failed to decrypt message {}", message.getId(), e);
-                    response.setContent("[Encrypted message]");
+        // Read through to the archive when the cursor reaches past the hot window
+        LocalDateTime archivedUntil = conversation.getArchivedUntil();
+        if (archivedUntil != null && !offsetPage) {
+            if (afterCursor != null) {
+                if (!afterCursor.createdAt().isAfter(archivedUntil)) {
+                    // Everything archived precedes the hot rows
+                    List<Message> archived = archiveService.findAfter(conversation, afterCursor, limit + 1);
+                    archived.addAll(messages);
+                    messages = archived;
                 }
+            } else if (messages.size() <= limit) {
+                MessageCursor anchor = messages.isEmpty() ? beforeCursor : MessageCursor.of(messages.get(messages.size() - 1));
+                messages.addAll(archiveService.findBefore(conversation, anchor, limit + 1 - messages.size()));
             }
-            return response;
-        });
+        }
+
+        boolean hasMore = messages.size() > limit || (offsetPage && messages.size() == limit);
+        if (messages.size() > limit) {
+            messages = messages.subList(0, limit);
+        }
+        if (after != null) {
+            Collections.reverse(messages);
+        }
+
+        List<MessageResponse> responses = decryptionService.toResponses(messages, conversation.getEncryptionKey());
+        readWatermarkService.applyReadState(responses, readWatermarkService.getWatermarks(conversationId), userId);
+
+        return CursorPageResponse.<MessageResponse>builder()
+                .content(responses)
+                .size(messages.size())
+                .hasMore(hasMore)
+                .nextCursor(messages.isEmpty() ? before : MessageCursor.of(messages.get(messages.size() - 1)).encode())
+                .prevCursor(messages.isEmpty() ? after : MessageCursor.of(messages.get(0)).encode())
+                .build();
     }
 
-    @Transactional
-    public void markMessagesAsRead(String userId, String conversationId) {
+    /**
+     * Keyword search within a conversation through the blind index.
+     * Only the matching messages are loaded and decrypted.
+     */
+    @Transactional(readOnly = true)
+    /**
+     * Newest hits first; pass nextCursor back as "before" for older hits
+     */
+    public CursorPageResponse<MessageResponse> searchMessages(String userId, String conversationId,
+                                                              String query, String before, int size) {
+        if (!searchIndex.isEnabled()) {
+            throw new BadRequestException("Message search is not enabled");
+        }
+        if (query == null || query.isBlank()) {
+            throw new BadRequestException("Search query cannot be empty");
+        }
         Conversation conversation = conversationRepository.findById(conversationId)
                 .orElseThrow(() -> new NotFoundException("Conversation not found"));
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new NotFoundException("User not found"));
-
-        if (!conversation.getParticipants().contains(user)) {
+        if (!membershipCache.isParticipant(conversationId, userId)) {
             throw new UnauthorizedException("User is not a participant in this conversation");
         }
 
-        List<Message> unreadMessages = messageRepository
-                .findUnreadMessagesByConversationAndNotSender(conversationId, userId);
+        int limit = Math.max(1, Math.min(size, maxPageSize));
+        MessageCursor beforeCursor = before != null ? MessageCursor.decode(before) : null;
+        List<SearchHitView> hits = searchIndex.search(conversationId, query, beforeCursor, limit + 1);
+        boolean hasMore = hits.size() > limit;
+        if (hasMore) {
+            hits = hits.subList(0, limit);
+        }
+        List<String> ids = hits.stream().map(SearchHitView::getMessageId).toList();
+        // Anchored on the last hit, not the last message returned, so skipped hits do not repeat
+        SearchHitView lastHit = hasMore ? hits.get(hits.size() - 1) : null;
+
+        // Hits whose message was deleted or archived since indexing are skipped
+        List<Message> messages = new ArrayList<>(messageRepository.findAllById(ids));
+        messages.removeIf(message -> Boolean.TRUE.equals(message.getIsDeleted())
+                || !message.getConversation().getId().equals(conversationId));
+        messages.sort(Comparator.comparing(Message::getCreatedAt).thenComparing(Message::getId).reversed());
+
+        List<MessageResponse> responses = decryptionService.toResponses(messages, conversation.getEncryptionKey());
+        readWatermarkService.applyReadState(responses, readWatermarkService.getWatermarks(conversationId), userId);
+
+        return CursorPageResponse.<MessageResponse>builder()
+                .content(responses)
+                .size(responses.size())
+                .hasMore(hasMore)
+                .nextCursor(lastHit != null
+                        ? new MessageCursor(lastHit.getCreatedAt(), lastHit.getMessageId()).encode() : null)
+                .build();
+    }
 
-        unreadMessages.forEach(message -> message.setIsRead(true));
-        messageRepository.saveAll(unreadMessages);
+    /**
+     * Mark everything up to the conversation's current sequence as read.
+     * One watermark upsert, independent of how many messages were unread.
+     */
+    @Transactional
+    public void markMessagesAsRead(String userId, String conversationId) {
+        long storedSeq = conversationRepository.findLastSeq(conversationId)
+                .orElseThrow(() -> new NotFoundException("Conversation not found"));
+        // The database lags behind the log by the sends not flushed yet
+        long lastSeq = writeAheadLog.map(wal -> Math.max(storedSeq, wal.currentSeq(conversationId)))
+                .orElse(storedSeq);
 
-        notifyReadStatus(conversation, userId);
+        if (!membershipCache.isParticipant(conversationId, userId)) {
+            throw new UnauthorizedException("User is not a participant in this conversation");
+        }
+
+        readWatermarkService.advance(conversationId, userId, lastSeq);
+        // An index range on (conversation_id, seq); a no-op once the legacy rows are flagged
+        messageRepository.markLegacyMessagesRead(conversationId, userId);
+        inboxRepository.recountUnread(conversationId, userId, lastSeq);
+
+        eventPublisher.publishEvent(new MessagesReadEvent(conversationId, userId, lastSeq));
     }
 
-    @Transactional
     public void deleteMessage(String userId, String messageId) {
+        if (writeAheadLog.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> deleteStoredMessage(userId, messageId, null));
+            return;
+        }
+        MessageWriteAheadLog wal = writeAheadLog.get();
+        // A logged send is only deletable once it is in the database
+        if (!wal.awaitFlushed(messageId, walFlushWaitMs)) {
+            throw new ConflictException("Message is still being saved, try again");
+        }
+        AtomicReference<ReservedSeq> reserved = new AtomicReference<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> deleteStoredMessage(userId, messageId, reserved));
+        } finally {
+            // Committed or rolled back, the number no longer holds last_seq back
+            ReservedSeq seq = reserved.get();
+            if (seq != null) {
+                conversationRepository.advanceLastSeq(seq.conversationId(),
+                        wal.complete(seq.conversationId(), seq.seq()));
+            }
+        }
+    }
+
+    /**
+     * @param reserved set to the sequence number taken from the write-ahead log, null without one
+     */
+    private void deleteStoredMessage(String userId, String messageId, AtomicReference<ReservedSeq> reserved) {
         Message message = messageRepository.findById(messageId)
                 .orElseThrow(() -> new NotFoundException("Message not found"));
 
@@ -174,35 +592,92 @@ public class MessageService {
             throw new UnauthorizedException("You can only delete your own messages");
         }
 
-        messageRepository.delete(message);
-        
+        if (Boolean.TRUE.equals(message.getIsDeleted())) {
+            return;
+        }
+
+        // Soft delete so delta sync can report it; the deletion takes the next sequence number
+        Conversation conversation = conversationRepository.findByIdForUpdate(message.getConversation().getId())
+                .orElseThrow(() -> new NotFoundException("Conversation not found"));
+        long seq;
+        if (reserved != null) {
+            // last_seq moves after commit, once every lower number is stored too
+            seq = writeAheadLog.get().nextSeq(conversation.getId());
+            reserved.set(new ReservedSeq(conversation.getId(), seq));
+        } else {
+            seq = conversation.getLastSeq() + 1;
+            conversation.setLastSeq(seq);
+            conversationRepository.save(conversation);
+        }
+
+        message.setIsDeleted(true);
+        message.setDeletedSeq(seq);
+        message.setContent(null);
+        message.setMediaUrl(null);
+        messageRepository.save(message);
+        searchIndex.remove(List.of(messageId));
+
         // Update conversation last message if needed (simplified logic)
         // In a real app, you'd find the new last message
     }
 
-    private void notifyParticipants(Conversation conversation, MessageResponse message, String senderId) {
-        conversation.getParticipants().forEach(participant -> {
-            if (!participant.getId().equals(senderId)) {
-                messagingTemplate.convertAndSendToUser(
-                        participant.getId(),
-                        "/queue/messages",
-                        message
-                );
-            }
-        });
+    private void validateContent(SendMessageRequest request) {
+        if (request.getType() == MessageType.TEXT && !hasText(request)) {
+            throw new BadRequestException("Text message content cannot be empty");
+        }
+        // Checked before encrypting so the row insert (or the log flush) cannot fail on it later
+        if (hasText(request) && MessageCryptoEngine.encryptedLength(request.getContent()) > MAX_STORED_CONTENT_LENGTH) {
+            throw new BadRequestException("Message content is too long");
+        }
     }
 
-    private void notifyReadStatus(Conversation conversation, String userId) {
-        conversation.getParticipants().forEach(participant -> {
-            if (!participant.getId().equals(userId)) {
-                messagingTemplate.convertAndSendToUser(
-                        participant.getId(),
-                        "/queue/read-status",
-                        new ReadStatusNotification(conversation.getId(), userId)
-                );
-            }
-        });
+    private static boolean hasText(SendMessageRequest request) {
+        return request.getContent() != null && !request.getContent().trim().isEmpty();
+    }
+
+    private static String searchableText(SendMessageRequest request) {
+        return request.getPlainContent() != null ? request.getPlainContent() : request.getContent();
+    }
+
+    private static String preview(SendMessageRequest request) {
+        return request.getContent() != null ?
+                request.getContent().substring(0, Math.min(100, request.getContent().length())) :
+                "[" + request.getType().name().toLowerCase() + "]";
     }
 
-    private record ReadStatusNotification(String conversationId, String userId) {}
+    private static Message toMessage(MessageWriteAheadLog.Entry entry, Conversation conversation, User sender) {
+        return Message.builder()
+                .id(entry.id())
+                .clientMsgId(entry.clientMsgId())
+                .seq(entry.seq())
+                .conversation(conversation)
+                .sender(sender)
+                .type(entry.type())
+                .content(entry.content())
+                .mediaUrl(entry.mediaUrl())
+                .isRead(false)
+                .createdAt(entry.createdAt())
+                .build();
+    }
+
+    private Optional<Message> findExistingMessage(String clientMsgId) {
+        // In write-ahead log mode a recent send may not have reached the database yet
+        if (writeAheadLog.isPresent()) {
+            MessageWriteAheadLog.Entry pending = writeAheadLog.get().findPending(clientMsgId);
+            if (pending != null) {
+                return Optional.of(toMessage(pending,
+                        conversationRepository.getReferenceById(pending.conversationId()),
+                        userRepository.findById(pending.senderId())
+                                .orElseThrow(() -> new NotFoundException("User not found"))));
+            }
+        }
+        String recentMessageId = deduplicator.findRecentMessageId(clientMsgId);
+        if (recentMessageId != null) {
+            Optional<Message> recent = messageRepository.findById(recentMessageId);
+            if (recent.isPresent()) {
+                return recent;
+            }
+        }
+        return messageRepository.findByClientMsgId(clientMsgId);
+    }
 }
@@ -0,0 +1,347 @@
+package com.ispilo.service;
+
+import com.ispilo.exception.NotFoundException;
+import com.ispilo.model.enums.MessageType;
+import com.ispilo.repository.ConversationRepository;
+import com.ispilo.util.SegmentedLog;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local write-ahead log for sent messages (app.chat.wal.enabled).
+ * A send is acknowledged once its record is forced to the log; {@link MessageLogFlusher}
+ * bulk-inserts pending records into MySQL and the log drops segments that are fully flushed.
+ * Records left in the log after a crash are replayed into the pending queue on startup.
+ *
+ * Sequence numbers are assigned here from an in-memory counter per conversation,
+ * so this mode assumes a single application node owns the database writes. Numbers can
+ * be stored out of order (log appends race, deletions take numbers too), so
+ * conversations.last_seq only moves up to the highest number below which everything
+ * is stored: a delta sync client never skips past a message that is still on its way.
+ */
+@Component
+@ConditionalOnProperty(name = "app.chat.wal.enabled", havingValue = "true")
+@Slf4j
+public class MessageWriteAheadLog {
+
+    private static final int FORMAT_VERSION = 1;
+
+    public record Entry(String id, String clientMsgId, String conversationId, String senderId, long seq,
+                        MessageType type, String content, String mediaUrl, LocalDateTime createdAt,
+                        String preview) {}
+
+    record Pending(Entry entry, long segment) {}
+
+    private final ConversationRepository conversationRepository;
+    private final SegmentedLog segments;
+    private final BlockingQueue<Pending> pending;
+    private final Map<String, Entry> pendingByClientMsgId = new ConcurrentHashMap<>();
+    private final Map<String, Entry> pendingById = new ConcurrentHashMap<>();
+    // Notified whenever a batch has been released
+    private final Object flushed = new Object();
+    private final Map<String, Sequence> sequences = new ConcurrentHashMap<>();
+    // Unflushed record count per segment; guarded by this
+    private final NavigableMap<Long, Integer> outstanding = new TreeMap<>();
+
+    public MessageWriteAheadLog(ConversationRepository conversationRepository,
+                                @Value("${app.chat.wal.directory:./data/message-wal}") String directory,
+                                @Value("${app.chat.wal.segment-size-mb:64}") int segmentSizeMb,
+                                @Value("${app.chat.wal.max-pending:100000}") int maxPending) {
+        this.conversationRepository = conversationRepository;
+        this.segments = new SegmentedLog(Path.of(directory), segmentSizeMb * 1024 * 1024);
+        this.pending = new LinkedBlockingQueue<>(maxPending);
+        recover();
+    }
+
+    /**
+     * Next sequence number of a conversation, seeded from the database on first use.
+     * Every number handed out must be passed to {@link #complete} once stored or given up.
+     */
+    public long nextSeq(String conversationId) {
+        return sequence(conversationId).next();
+    }
+
+    /**
+     * Highest sequence number handed out for a conversation, flushed or not
+     */
+    public long currentSeq(String conversationId) {
+        return sequence(conversationId).issued();
+    }
+
+    /**
+     * Mark a sequence number as committed (or abandoned) and return the number
+     * conversations.last_seq may move up to
+     */
+    public long complete(String conversationId, long seq) {
+        return sequence(conversationId).complete(seq);
+    }
+
+    /**
+     * A logged send with this client id that has not reached the database yet
+     */
+    public Entry findPending(String clientMsgId) {
+        return pendingByClientMsgId.get(clientMsgId);
+    }
+
+    /**
+     * Wait up to the timeout until the message with this id, if logged, has been flushed.
+     * Returns false if it is still pending.
+     */
+    public boolean awaitFlushed(String messageId, long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (flushed) {
+            while (pendingById.containsKey(messageId)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(flushed, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build, log and force one message. Returns the already pending entry instead,
+     * with a different id, when the client id is still waiting to be flushed.
+     */
+    public Entry append(String messageId, String clientMsgId, String conversationId, String senderId,
+                        MessageType type, String content, String mediaUrl, String preview) {
+        Entry existing = pendingByClientMsgId.get(clientMsgId);
+        if (existing != null) {
+            return existing;
+        }
+        Entry entry = new Entry(messageId, clientMsgId, conversationId, senderId,
+                nextSeq(conversationId), type, content, mediaUrl, LocalDateTime.now(), preview);
+        existing = pendingByClientMsgId.putIfAbsent(clientMsgId, entry);
+        if (existing != null) {
+            return existing;
+        }
+        pendingById.put(messageId, entry);
+
+        SegmentedLog.Appended appended;
+        try {
+            byte[] payload = encode(entry);
+            synchronized (this) {
+                appended = segments.append(payload);
+                outstanding.merge(appended.segment(), 1, Integer::sum);
+            }
+            segments.force(appended.ticket());
+        } catch (RuntimeException e) {
+            pendingByClientMsgId.remove(clientMsgId);
+            pendingById.remove(messageId);
+            throw e;
+        }
+
+        try {
+            pending.put(new Pending(entry, appended.segment()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Durable already; recovery picks it up if this node stops before the next flush
+            throw new IllegalStateException("Interrupted while queueing a logged message", e);
+        }
+        return entry;
+    }
+
+    /**
+     * Wait up to the timeout for the first record, then take whatever else is queued
+     */
+    List<Pending> drain(List<Pending> batch, int maxBatch, long timeoutMillis) throws InterruptedException {
+        Pending first = pending.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (first != null) {
+            batch.add(first);
+            pending.drainTo(batch, maxBatch - 1);
+        }
+        return batch;
+    }
+
+    /**
+     * Mark records as persisted (or dead-lettered) and delete segments with nothing left
+     * to flush. Returns, per conversation in the batch, the number last_seq may move up to.
+     */
+    Map<String, Long> release(List<Pending> batch) {
+        Map<String, Long> storedSeqs = new HashMap<>();
+        for (Pending item : batch) {
+            storedSeqs.put(item.entry().conversationId(), complete(item.entry().conversationId(), item.entry().seq()));
+        }
+        long deleteBefore;
+        synchronized (this) {
+            for (Pending item : batch) {
+                outstanding.computeIfPresent(item.segment(), (segment, count) -> count > 1 ? count - 1 : null);
+            }
+            deleteBefore = outstanding.isEmpty() ? segments.currentSegment() : outstanding.firstKey();
+        }
+        for (Pending item : batch) {
+            pendingByClientMsgId.remove(item.entry().clientMsgId(), item.entry());
+            pendingById.remove(item.entry().id());
+        }
+        synchronized (flushed) {
+            flushed.notifyAll();
+        }
+        segments.deleteSegmentsBefore(deleteBefore);
+        return storedSeqs;
+    }
+
+    boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    @PreDestroy
+    void close() {
+        segments.close();
+    }
+
+    private Sequence sequence(String conversationId) {
+        return sequences.computeIfAbsent(conversationId, id -> new Sequence(
+                conversationRepository.findHighestSeq(id).orElseThrow(() -> new NotFoundException("Conversation not found"))));
+    }
+
+    private void recover() {
+        AtomicLong recovered = new AtomicLong();
+        // conversation id -> sequence numbers still to be flushed
+        Map<String, Set<Long>> unflushedSeqs = new HashMap<>();
+        segments.replay((segment, payload) -> {
+            Entry entry = decode(payload);
+            unflushedSeqs.computeIfAbsent(entry.conversationId(), id -> new HashSet<>()).add(entry.seq());
+            pendingByClientMsgId.put(entry.clientMsgId(), entry);
+            pendingById.put(entry.id(), entry);
+            outstanding.merge(segment, 1, Integer::sum);
+            if (!pending.offer(new Pending(entry, segment))) {
+                throw new IllegalStateException("More unflushed messages than app.chat.wal.max-pending allows");
+            }
+            recovered.incrementAndGet();
+        });
+        unflushedSeqs.forEach((conversationId, seqs) -> sequences.put(conversationId, new Sequence(
+                conversationRepository.findHighestSeq(conversationId).orElse(0L), seqs)));
+        if (recovered.get() > 0) {
+            log.info("Recovered {} unflushed messages from the write-ahead log", recovered.get());
+        }
+    }
+
+    /**
+     * Sequence numbers of one conversation: the highest handed out, and the highest
+     * below which every number is stored
+     */
+    private static final class Sequence {
+
+        private long issued;
+        private long stored;
+        // Stored numbers above the contiguous range, waiting for the gap below them
+        private final NavigableSet<Long> storedAbove = new TreeSet<>();
+
+        Sequence(long highestInDatabase) {
+            this.issued = highestInDatabase;
+            this.stored = highestInDatabase;
+        }
+
+        /**
+         * After a restart: unflushed numbers from the log are the only gaps; any other number
+         * up to the highest in use is stored, or was abandoned and never will be
+         */
+        Sequence(long highestInDatabase, Set<Long> unflushed) {
+            long lowest = Collections.min(unflushed);
+            this.issued = Math.max(highestInDatabase, Collections.max(unflushed));
+            this.stored = Math.min(highestInDatabase, lowest - 1);
+            for (long seq = stored + 1; seq <= issued; seq++) {
+                if (!unflushed.contains(seq)) {
+                    storedAbove.add(seq);
+                }
+            }
+        }
+
+        synchronized long next() {
+            return ++issued;
+        }
+
+        synchronized long issued() {
+            return issued;
+        }
+
+        synchronized long complete(long seq) {
+            if (seq > stored) {
+                storedAbove.add(seq);
+            }
+            while (!storedAbove.isEmpty() && storedAbove.first() == stored + 1) {
+                stored = storedAbove.pollFirst();
+            }
+            return stored;
+        }
+    }
+
+    private static byte[] encode(Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(entry.id());
+            out.writeUTF(entry.clientMsgId());
+            out.writeUTF(entry.conversationId());
+            out.writeUTF(entry.senderId());
+            out.writeLong(entry.seq());
+            out.writeUTF(entry.type().name());
+            writeNullable(out, entry.content());
+            writeNullable(out, entry.mediaUrl());
+            out.writeUTF(entry.createdAt().toString());
+            writeNullable(out, entry.preview());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(byte[] payload) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            int version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalStateException("Unknown write-ahead log record version " + version);
+            }
+            return new Entry(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(),
+                    MessageType.valueOf(in.readUTF()), readNullable(in), readNullable(in),
+                    LocalDateTime.parse(in.readUTF()), readNullable(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,320 @@
+package com.ispilo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-session outbound queues for the STOMP endpoint.
+ * Frames written by the clientOutboundChannel are queued on the session and return
+ * immediately, so one slow connection no longer holds an outbound thread. Frames
+ * queued within the batch window are written as one WebSocket message; STOMP allows
+ * several frames per message. A full queue, or a send stuck longer than the send
+ * time limit, either drops the new frame or closes the session, depending on the
+ * overflow policy. Closed clients recover what they missed through delta sync.
+ * A close requested by the STOMP handler, such as after an ERROR frame, waits behind
+ * the frames already queued.
+ */
+@Component
+@Slf4j
+public class OutboundFrameBatcher implements WebSocketHandlerDecoratorFactory {
+
+    public enum OverflowPolicy { DROP, DISCONNECT }
+
+    private final Map<String, BatchingSession> sessions = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor flusher;
+    private final long batchWindowMillis;
+    private final int maxQueuedFrames;
+    private final int maxQueuedBytes;
+    private final int maxBatchBytes;
+    private final long sendTimeLimitMillis;
+    private final OverflowPolicy overflowPolicy;
+
+    private final Counter framesSent;
+    private final Counter batchesSent;
+    private final Counter framesDropped;
+    private final Counter sessionsDisconnected;
+
+    public OutboundFrameBatcher(MeterRegistry meterRegistry,
+                                @Value("${app.chat.outbound.batch-window-ms:10}") long batchWindowMillis,
+                                @Value("${app.chat.outbound.max-queued-frames:1000}") int maxQueuedFrames,
+                                @Value("${app.chat.outbound.max-queued-bytes:1048576}") int maxQueuedBytes,
+                                @Value("${app.chat.outbound.max-batch-bytes:65536}") int maxBatchBytes,
+                                @Value("${app.chat.outbound.send-time-limit-ms:10000}") long sendTimeLimitMillis,
+                                @Value("${app.chat.outbound.overflow-policy:DISCONNECT}") OverflowPolicy overflowPolicy,
+                                @Value("${app.chat.outbound.pool-size:0}") int poolSize) {
+        this.batchWindowMillis = batchWindowMillis;
+        this.maxQueuedFrames = maxQueuedFrames;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.maxBatchBytes = maxBatchBytes;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        this.overflowPolicy = overflowPolicy;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.flusher = new ScheduledThreadPoolExecutor(
+                poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors() * 2, runnable -> {
+            Thread thread = new Thread(runnable, "chat-ws-flush-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.setRemoveOnCancelPolicy(true);
+
+        this.framesSent = meterRegistry.counter("chat.ws.outbound.frames");
+        this.batchesSent = meterRegistry.counter("chat.ws.outbound.batches");
+        this.framesDropped = meterRegistry.counter("chat.ws.outbound.dropped");
+        this.sessionsDisconnected = meterRegistry.counter("chat.ws.outbound.disconnects");
+        Gauge.builder("chat.ws.outbound.queue.depth", sessions,
+                        all -> all.values().stream().mapToInt(BatchingSession::depth).sum())
+                .description("Frames queued across all sessions")
+                .register(meterRegistry);
+        Gauge.builder("chat.ws.outbound.queue.max", sessions,
+                        all -> all.values().stream().mapToInt(BatchingSession::depth).max().orElse(0))
+                .description("Deepest session queue")
+                .register(meterRegistry);
+        Gauge.builder("chat.ws.outbound.sessions", sessions, Map::size)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                BatchingSession batching = new BatchingSession(session);
+                sessions.put(session.getId(), batching);
+                super.afterConnectionEstablished(batching);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                BatchingSession batching = sessions.get(session.getId());
+                super.handleMessage(batching != null ? batching : session, message);
+            }
+
+            @Override
+            public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+                BatchingSession batching = sessions.get(session.getId());
+                super.handleTransportError(batching != null ? batching : session, exception);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                BatchingSession batching = sessions.remove(session.getId());
+                if (batching != null) {
+                    batching.discard();
+                }
+                super.afterConnectionClosed(batching != null ? batching : session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * True if nothing is queued or being written for the session
+     */
+    public boolean isDrained(String sessionId) {
+        BatchingSession batching = sessions.get(sessionId);
+        return batching == null || batching.drained();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flusher.shutdownNow();
+    }
+
+    private final class BatchingSession extends WebSocketSessionDecorator {
+
+        // Guarded by this
+        private final ArrayDeque<WebSocketMessage<?>> queue = new ArrayDeque<>();
+        private int queuedBytes;
+        private boolean flushScheduled;
+        private boolean closed;
+        // Close requested while frames were queued; applied once they are written
+        private CloseStatus pendingClose;
+        private volatile long sendStartedAt;
+
+        BatchingSession(WebSocketSession delegate) {
+            super(delegate);
+        }
+
+        int depth() {
+            synchronized (this) {
+                return queue.size();
+            }
+        }
+
+        synchronized boolean drained() {
+            return queue.isEmpty() && sendStartedAt == 0;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            synchronized (this) {
+                if (closed || pendingClose != null) {
+                    return;
+                }
+                long sending = sendStartedAt;
+                boolean stuck = sending > 0 && System.currentTimeMillis() - sending > sendTimeLimitMillis;
+                if (stuck || queue.size() >= maxQueuedFrames
+                        || queuedBytes + message.getPayloadLength() > maxQueuedBytes) {
+                    overflow(stuck);
+                    return;
+                }
+                queue.add(message);
+                queuedBytes += message.getPayloadLength();
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    flusher.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            close(CloseStatus.NORMAL);
+        }
+
+        @Override
+        public void close(CloseStatus status) throws IOException {
+            synchronized (this) {
+                if (closed || pendingClose != null) {
+                    return;
+                }
+                if (flushScheduled) {
+                    // The flush in progress or scheduled closes once the queue is written
+                    pendingClose = status;
+                    return;
+                }
+                closed = true;
+            }
+            getDelegate().close(status);
+        }
+
+        private void overflow(boolean stuck) {
+            if (overflowPolicy == OverflowPolicy.DROP) {
+                framesDropped.increment();
+                return;
+            }
+            log.warn("Closing slow WebSocket session {} ({} frames queued{})",
+                    getId(), queue.size(), stuck ? ", send stuck" : "");
+            framesDropped.increment(queue.size() + 1);
+            sessionsDisconnected.increment();
+            discard();
+            // Closing may wait for the write in progress, so keep it off the caller's thread
+            flusher.execute(() -> {
+                try {
+                    getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+                } catch (IOException e) {
+                    log.debug("Failed to close slow session {}: {}", getId(), e.getMessage());
+                }
+            });
+        }
+
+        synchronized void discard() {
+            closed = true;
+            queue.clear();
+            queuedBytes = 0;
+        }
+
+        /**
+         * Write everything queued so far; only one flush per session runs at a time
+         */
+        private void flush() {
+            while (true) {
+                List<WebSocketMessage<?>> batch = new ArrayList<>();
+                synchronized (this) {
+                    int bytes = 0;
+                    while (!queue.isEmpty()) {
+                        WebSocketMessage<?> next = queue.peek();
+                        boolean text = next instanceof TextMessage;
+                        if (!batch.isEmpty() && (!text || !(batch.get(0) instanceof TextMessage)
+                                || bytes + next.getPayloadLength() > maxBatchBytes)) {
+                            break;
+                        }
+                        queue.poll();
+                        queuedBytes -= next.getPayloadLength();
+                        bytes += next.getPayloadLength();
+                        batch.add(next);
+                    }
+                    if (closed) {
+                        flushScheduled = false;
+                        return;
+                    }
+                    if (batch.isEmpty()) {
+                        flushScheduled = false;
+                        if (pendingClose == null) {
+                            return;
+                        }
+                        closed = true;
+                    }
+                }
+                if (batch.isEmpty() || !write(batch)) {
+                    closeQueued();
+                    return;
+                }
+            }
+        }
+
+        private void closeQueued() {
+            CloseStatus status;
+            synchronized (this) {
+                status = pendingClose;
+                pendingClose = null;
+            }
+            discard();
+            if (status == null) {
+                return;
+            }
+            try {
+                getDelegate().close(status);
+            } catch (IOException e) {
+                log.debug("Failed to close session {}: {}", getId(), e.getMessage());
+            }
+        }
+
+        private boolean write(List<WebSocketMessage<?>> batch) {
+            WebSocketMessage<?> message = batch.get(0);
+            if (batch.size() > 1) {
+                StringBuilder frames = new StringBuilder();
+                for (WebSocketMessage<?> frame : batch) {
+                    frames.append(((TextMessage) frame).getPayload());
+                }
+                message = new TextMessage(frames);
+            }
+            sendStartedAt = System.currentTimeMillis();
+            try {
+                getDelegate().sendMessage(message);
+                framesSent.increment(batch.size());
+                batchesSent.increment();
+                return true;
+            } catch (IOException | RuntimeException e) {
+                log.debug("Failed to write to WebSocket session {}: {}", getId(), e.getMessage());
+                return false;
+            } finally {
+                sendStartedAt = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.ispilo.service;
+
+import com.ispilo.model.dto.response.PresenceResponse;
+import com.ispilo.repository.ConversationRepository;
+import com.ispilo.repository.UserRepository;
+import com.ispilo.util.HashedTimingWheel;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Online status from STOMP sessions.
+ * A user is online while they hold a session; sessions are opened and closed by
+ * CONNECT/DISCONNECT and kept fresh by every inbound frame, heartbeats included.
+ * When all of a user's sessions negotiated client heartbeats, silence for the idle
+ * timeout also ends them, which catches mobile connections that vanish without a
+ * DISCONNECT. Expiry runs on one timing wheel with a single self re-arming timeout
+ * per user. Changes are pushed on /user/queue/presence to conversation partners only,
+ * and last-seen times are written to users in periodic batches.
+ *
+ * State is per node; in cluster mode each node reports the sessions it holds.
+ */
+@Service
+@Slf4j
+public class PresenceService {
+
+    private final Map<String, Presence> presence = new ConcurrentHashMap<>();
+    private final Map<String, SessionInfo> sessions = new ConcurrentHashMap<>();
+    private final Map<String, LocalDateTime> pendingLastSeen = new ConcurrentHashMap<>();
+
+    private final ConversationRepository conversationRepository;
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolTaskExecutor fanoutExecutor;
+    // Created by the broker configuration that also feeds this service
+    private final ObjectProvider<SimpMessagingTemplate> messagingTemplate;
+    private final HashedTimingWheel wheel;
+    private final long idleTimeoutMillis;
+
+    private record SessionInfo(String userId, boolean heartbeats) {}
+
+    private static final class Presence {
+        // Ids of the sessions counted below
+        final Set<String> sessionIds = new HashSet<>();
+        int sessions;
+        int heartbeatSessions;
+        volatile long lastActiveAt;
+        boolean online;
+        boolean removed;
+    }
+
+    public PresenceService(ConversationRepository conversationRepository,
+                           UserRepository userRepository,
+                           TransactionTemplate transactionTemplate,
+                           @Qualifier("chatFanoutExecutor") ThreadPoolTaskExecutor fanoutExecutor,
+                           ObjectProvider<SimpMessagingTemplate> messagingTemplate,
+                           @Value("${app.chat.presence.idle-timeout-ms:30000}") long idleTimeoutMillis,
+                           @Value("${app.chat.presence.tick-ms:500}") long tickMillis) {
+        this.conversationRepository = conversationRepository;
+        this.userRepository = userRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.fanoutExecutor = fanoutExecutor;
+        this.messagingTemplate = messagingTemplate;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.wheel = new HashedTimingWheel("chat-presence-wheel", tickMillis, TimeUnit.MILLISECONDS, 128,
+                (thread, e) -> log.error("Presence timer task failed", e));
+    }
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        Principal user = event.getUser();
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        if (user == null || accessor.getSessionId() == null) {
+            return;
+        }
+        // The CONNECT_ACK carries the client's CONNECT, whose heart-beat says whether it will send heartbeats
+        boolean heartbeats = false;
+        if (accessor.getHeader(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER) instanceof Message<?> connect) {
+            long[] heartbeat = StompHeaderAccessor.wrap(connect).getHeartbeat();
+            heartbeats = heartbeat[0] > 0;
+        }
+        sessions.put(accessor.getSessionId(), new SessionInfo(user.getName(), heartbeats));
+        sessionOpened(accessor.getSessionId(), user.getName(), heartbeats);
+    }
+
+    @EventListener
+    public void onDisconnected(SessionDisconnectEvent event) {
+        SessionInfo session = sessions.remove(event.getSessionId());
+        if (session != null) {
+            sessionClosed(event.getSessionId(), session.userId(), session.heartbeats());
+        }
+    }
+
+    /**
+     * Any inbound frame of a session counts as activity
+     */
+    public void onInboundFrame(String sessionId) {
+        if (sessionId == null) {
+            return;
+        }
+        SessionInfo session = sessions.get(sessionId);
+        if (session != null) {
+            Presence state = presence.get(session.userId());
+            if (state != null) {
+                state.lastActiveAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    public boolean isOnline(String userId) {
+        Presence state = presence.get(userId);
+        return state != null && state.online;
+    }
+
+    /**
+     * Bulk lookup for the caller; users who share no conversation with the caller are left out.
+     * Last-seen comes from memory and falls back to the users table.
+     */
+    public List<PresenceResponse> getPresence(String callerId, List<String> userIds) {
+        Set<String> visible = new HashSet<>(conversationRepository.findPartnerIds(callerId));
+        visible.add(callerId);
+        List<PresenceResponse> responses = new ArrayList<>(userIds.size());
+        Map<String, PresenceResponse> needLastSeen = new HashMap<>();
+        for (String userId : userIds) {
+            if (!visible.contains(userId)) {
+                continue;
+            }
+            Presence state = presence.get(userId);
+            boolean online = state != null && state.online;
+            LocalDateTime lastSeen = online ? null : pendingLastSeen.get(userId);
+            PresenceResponse response = PresenceResponse.builder()
+                    .userId(userId)
+                    .online(online)
+                    .lastSeenAt(lastSeen)
+                    .build();
+            responses.add(response);
+            if (!online && lastSeen == null) {
+                needLastSeen.put(userId, response);
+            }
+        }
+        if (!needLastSeen.isEmpty()) {
+            userRepository.findLastSeen(needLastSeen.keySet()).forEach(view ->
+                    needLastSeen.get(view.getUserId()).setLastSeenAt(view.getLastSeenAt()));
+        }
+        return responses;
+    }
+
+    /**
+     * Write last-seen times collected since the previous run
+     */
+    @Scheduled(fixedDelayString = "${app.chat.presence.last-seen-flush-ms:30000}")
+    public void flushLastSeen() {
+        if (pendingLastSeen.isEmpty()) {
+            return;
+        }
+        Map<String, LocalDateTime> batch = new HashMap<>(pendingLastSeen);
+        transactionTemplate.executeWithoutResult(status ->
+                batch.forEach(userRepository::advanceLastSeen));
+        // Only entries unchanged since the copy; times that moved on go out with the next run
+        batch.forEach((userId, lastSeen) -> pendingLastSeen.remove(userId, lastSeen));
+        log.debug("Persisted last-seen for {} users", batch.size());
+    }
+
+    @PreDestroy
+    void close() {
+        wheel.close();
+    }
+
+    private void sessionOpened(String sessionId, String userId, boolean heartbeats) {
+        while (true) {
+            Presence state = presence.computeIfAbsent(userId, id -> new Presence());
+            boolean cameOnline;
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+                boolean firstTimer = state.sessions == 0 && !state.online && state.lastActiveAt == 0;
+                state.sessionIds.add(sessionId);
+                state.sessions++;
+                if (heartbeats) {
+                    state.heartbeatSessions++;
+                }
+                state.lastActiveAt = System.currentTimeMillis();
+                cameOnline = !state.online;
+                state.online = true;
+                if (firstTimer) {
+                    arm(userId, state, idleTimeoutMillis);
+                }
+            }
+            if (cameOnline) {
+                publish(userId, true, null);
+            }
+            return;
+        }
+    }
+
+    private void sessionClosed(String sessionId, String userId, boolean heartbeats) {
+        Presence state = presence.get(userId);
+        if (state == null) {
+            return;
+        }
+        LocalDateTime wentOffline = null;
+        synchronized (state) {
+            if (!state.sessionIds.remove(sessionId)) {
+                return; // already ended by expiry
+            }
+            state.sessions = Math.max(0, state.sessions - 1);
+            if (heartbeats) {
+                state.heartbeatSessions = Math.max(0, state.heartbeatSessions - 1);
+            }
+            if (state.sessions == 0 && state.online) {
+                state.online = false;
+                wentOffline = LocalDateTime.now();
+            }
+        }
+        if (wentOffline != null) {
+            pendingLastSeen.put(userId, wentOffline);
+            publish(userId, false, wentOffline);
+        }
+    }
+
+    private void arm(String userId, Presence state, long delayMillis) {
+        wheel.schedule(() -> expire(userId, state), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire(String userId, Presence state) {
+        LocalDateTime wentOffline = null;
+        synchronized (state) {
+            if (!state.online) {
+                // Offline for a full timeout: drop the entry, last-seen is pending or persisted
+                state.removed = true;
+                presence.remove(userId, state);
+                return;
+            }
+            long idle = System.currentTimeMillis() - state.lastActiveAt;
+            boolean allHeartbeating = state.heartbeatSessions > 0 && state.heartbeatSessions == state.sessions;
+            if (idle < idleTimeoutMillis || !allHeartbeating) {
+                arm(userId, state, Math.max(idleTimeoutMillis - idle, idleTimeoutMillis / 4));
+                return;
+            }
+            // Every session went silent past its heartbeat; treat them as gone, so their
+            // eventual disconnects cannot count down sessions opened since
+            state.sessionIds.forEach(sessions::remove);
+            state.sessionIds.clear();
+            state.online = false;
+            state.sessions = 0;
+            state.heartbeatSessions = 0;
+            wentOffline = LocalDateTime.ofInstant(Instant.ofEpochMilli(state.lastActiveAt), ZoneId.systemDefault());
+            arm(userId, state, idleTimeoutMillis);
+        }
+        pendingLastSeen.put(userId, wentOffline);
+        publish(userId, false, wentOffline);
+    }
+
+    private void publish(String userId, boolean online, LocalDateTime lastSeenAt) {
+        PresenceResponse change = PresenceResponse.builder()
+                .userId(userId)
+                .online(online)
+                .lastSeenAt(lastSeenAt)
+                .build();
+        fanoutExecutor.execute(() -> {
+            try {
+                for (String partnerId : conversationRepository.findPartnerIds(userId)) {
+                    messagingTemplate.getObject().convertAndSendToUser(partnerId, "/queue/presence", change);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Failed to publish presence of {}: {}", userId, e.getMessage());
+            }
+        });
+    }
+}
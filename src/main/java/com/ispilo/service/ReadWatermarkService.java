@@ -0,0 +1,73 @@
+package com.ispilo.service;
+
+import com.ispilo.model.dto.response.MessageResponse;
+import com.ispilo.model.entity.ConversationReadState;
+import com.ispilo.repository.ConversationReadStateRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read state as per-(conversation, user) watermarks instead of per-message flags.
+ * Marking a conversation read is one upsert no matter how many messages it covers,
+ * and each member of a group has their own position.
+ */
+@Service
+@RequiredArgsConstructor
+public class ReadWatermarkService {
+
+    private final ConversationReadStateRepository readStateRepository;
+
+    /**
+     * Move the user's watermark up to seq; never moves it backwards
+     */
+    @Transactional
+    public void advance(String conversationId, String userId, long seq) {
+        readStateRepository.advanceReadSeq(conversationId, userId, seq, LocalDateTime.now());
+    }
+
+    /**
+     * userId -> last read sequence for one conversation
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Long> getWatermarks(String conversationId) {
+        return toWatermarkMap(readStateRepository.findByConversationId(conversationId));
+    }
+
+    public static Map<String, Long> toWatermarkMap(List<ConversationReadState> readStates) {
+        Map<String, Long> watermarks = new HashMap<>(readStates.size() * 2);
+        for (ConversationReadState readState : readStates) {
+            watermarks.put(readState.getUserId(), readState.getLastReadSeq());
+        }
+        return watermarks;
+    }
+
+    /**
+     * Derive isRead from watermarks as seen by the viewer.
+     * Own messages are read once any other participant has passed them;
+     * received messages are read once the viewer's watermark has passed them.
+     * Messages stored before sequence numbers existed keep their stored flag.
+     */
+    public void applyReadState(List<MessageResponse> responses, Map<String, Long> watermarks, String viewerId) {
+        long ownWatermark = watermarks.getOrDefault(viewerId, 0L);
+        long othersWatermark = 0L;
+        for (Map.Entry<String, Long> entry : watermarks.entrySet()) {
+            if (!entry.getKey().equals(viewerId)) {
+                othersWatermark = Math.max(othersWatermark, entry.getValue());
+            }
+        }
+
+        for (MessageResponse response : responses) {
+            if (response.getSeq() == null) {
+                continue;
+            }
+            long watermark = viewerId.equals(response.getSenderId()) ? othersWatermark : ownWatermark;
+            response.setIsRead(watermark >= response.getSeq());
+        }
+    }
+}
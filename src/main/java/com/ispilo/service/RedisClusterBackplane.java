@@ -0,0 +1,109 @@
+package com.ispilo.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Redis pub/sub backplane. User sessions are a hash per user (node id -> session count),
+ * node liveness is a hash of node id -> last heartbeat millis.
+ */
+@Component
+@ConditionalOnProperty(name = "app.chat.cluster.mode", havingValue = "redis")
+@Slf4j
+public class RedisClusterBackplane implements ClusterBackplane {
+
+    private static final String USER_NODES_PREFIX = "chat:cluster:user-nodes:";
+    private static final String NODES_KEY = "chat:cluster:nodes";
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final long nodeTimeoutMillis;
+    private final Duration userKeyTtl;
+
+    public RedisClusterBackplane(RedisConnectionFactory connectionFactory,
+                                 StringRedisTemplate redisTemplate,
+                                 @Value("${app.chat.cluster.node-timeout-ms:30000}") long nodeTimeoutMillis) {
+        this.redisTemplate = redisTemplate;
+        this.nodeTimeoutMillis = nodeTimeoutMillis;
+        this.userKeyTtl = Duration.ofDays(1);
+        this.listenerContainer = new RedisMessageListenerContainer();
+        this.listenerContainer.setConnectionFactory(connectionFactory);
+        this.listenerContainer.afterPropertiesSet();
+        this.listenerContainer.start();
+    }
+
+    @Override
+    public void publish(String channel, byte[] message) {
+        byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(channelBytes, message));
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<byte[]> listener) {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            try {
+                listener.accept(message.getBody());
+            } catch (RuntimeException e) {
+                log.error("Cluster message on {} failed", channel, e);
+            }
+        }, new ChannelTopic(channel));
+    }
+
+    @Override
+    public void sessionOpened(String userId, String nodeId) {
+        String key = USER_NODES_PREFIX + userId;
+        redisTemplate.opsForHash().increment(key, nodeId, 1);
+        redisTemplate.expire(key, userKeyTtl);
+    }
+
+    @Override
+    public void sessionClosed(String userId, String nodeId) {
+        String key = USER_NODES_PREFIX + userId;
+        Long remaining = redisTemplate.opsForHash().increment(key, nodeId, -1);
+        if (remaining != null && remaining <= 0) {
+            redisTemplate.opsForHash().delete(key, nodeId);
+        }
+    }
+
+    @Override
+    public Set<String> nodesFor(String userId) {
+        Set<Object> nodes = redisTemplate.opsForHash().keys(USER_NODES_PREFIX + userId);
+        if (nodes.isEmpty()) {
+            return Set.of();
+        }
+        Map<Object, Object> alive = redisTemplate.opsForHash().entries(NODES_KEY);
+        long cutoff = System.currentTimeMillis() - nodeTimeoutMillis;
+        return nodes.stream()
+                .map(Object::toString)
+                .filter(node -> {
+                    Object lastSeen = alive.get(node);
+                    return lastSeen != null && Long.parseLong(lastSeen.toString()) >= cutoff;
+                })
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    @Override
+    public void heartbeat(String nodeId) {
+        redisTemplate.opsForHash().put(NODES_KEY, nodeId, Long.toString(System.currentTimeMillis()));
+    }
+
+    @PreDestroy
+    void close() throws Exception {
+        listenerContainer.destroy();
+    }
+}
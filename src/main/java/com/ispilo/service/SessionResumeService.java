@@ -0,0 +1,412 @@
+package com.ispilo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ispilo.exception.UnauthorizedException;
+import com.ispilo.model.dto.response.SessionResumeResponse;
+import com.ispilo.model.dto.response.SessionResumeResponse.ReplayedEvent;
+import com.ispilo.util.HashedTimingWheel;
+import com.ispilo.util.RingBuffer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resumable STOMP sessions for clients that drop and reconnect.
+ * Every authenticated CONNECT is issued a resume token, handed out on the session's
+ * /app/session subscription. While a user holds a session or an unexpired token, the
+ * events pushed to their user queues are also kept in a bounded per-user ring, and the
+ * events published to a conversation topic they subscribed to in one bounded ring per
+ * conversation, so a group send is recorded once rather than per member. All rings
+ * share one sequence, so a replay merges them in publish order. A CONNECT presenting
+ * the token within the window is authenticated from it, without the JWT parse and user
+ * lookup, and its /app/session reply lists the events published since the old session's
+ * resume point. Topic events are replayed only while the user is still a member.
+ *
+ * The resume point trails the session: an inbound frame arriving while the session's
+ * outbound queue is drained marks the current sequence, and the mark becomes the resume
+ * point on the first inbound frame at least the replay margin later. Frames still
+ * queued, on their way to the queue or in socket buffers when the connection dropped
+ * are therefore replayed rather than skipped.
+ *
+ * Events the old session did receive may be replayed; clients already match messages by
+ * id and read and delivery updates are watermarks. In cluster mode events relayed from
+ * other nodes are recorded on the node that delivers them (see ClusterBrokerRelay).
+ * Tokens are single use and per node: a client resuming on another node falls back to
+ * its Authorization header.
+ */
+@Service
+@Slf4j
+public class SessionResumeService {
+
+    public static final String RESUME_TOKEN_HEADER = "resume-token";
+
+    private static final String USER_PREFIX = "/user/";
+    // Relayed events kept for replay, the same ones this node's publishers record
+    private static final Set<String> REPLAYED_USER_QUEUES =
+            Set.of("/queue/messages", "/queue/read-status", "/queue/delivery-status", "/queue/media");
+    private static final String REPLAYED_TOPIC_SUFFIX = "/media";
+
+    private record Recorded(long sequence, ReplayedEvent event) {}
+
+    private static final class Events {
+        final RingBuffer<Recorded> ring;
+        // Sessions and open tokens holding the ring; updated inside compute only
+        int holders;
+
+        Events(int capacity) {
+            this.ring = new RingBuffer<>(capacity);
+        }
+    }
+
+    private static final class SessionState {
+        final String token;
+        final String userId;
+        final Authentication authentication;
+        final long notAfter;
+        final Events events;
+        // Conversation topics subscribed to, each holding its conversation's ring
+        final Set<String> topics = ConcurrentHashMap.newKeySet();
+        // Sequence the session is known to have received everything before
+        volatile long resumeFrom;
+        // Candidate resume point and when it was taken, 0 if none; guarded by this
+        long markSequence;
+        long markedAt;
+        // Where a resumed session's replay starts, until it has been handed out
+        volatile long replayFrom = -1;
+
+        SessionState(String token, Authentication authentication, long notAfter, Events events) {
+            this.token = token;
+            this.userId = authentication.getName();
+            this.authentication = authentication;
+            this.notAfter = notAfter;
+            this.events = events;
+        }
+    }
+
+    // sessionId -> state, while connected
+    private final Map<String, SessionState> sessions = new ConcurrentHashMap<>();
+    // resume token -> state, until used or expired; each entry holds one reference to the user's ring
+    private final Map<String, SessionState> tokens = new ConcurrentHashMap<>();
+    // userId -> events sent to the user's queues
+    private final Map<String, Events> events = new ConcurrentHashMap<>();
+    // conversationId -> events published to the conversation's topics
+    private final Map<String, Events> topicEvents = new ConcurrentHashMap<>();
+    // Next sequence, shared by all rings
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final ConversationMembershipCache membershipCache;
+    private final OutboundFrameBatcher outboundFrameBatcher;
+    private final ObjectMapper objectMapper;
+    private final SecureRandom random = new SecureRandom();
+    private final HashedTimingWheel wheel;
+    private final boolean enabled;
+    private final long windowMillis;
+    private final long replayMarginMillis;
+    private final int bufferSize;
+
+    public SessionResumeService(ConversationMembershipCache membershipCache,
+                                OutboundFrameBatcher outboundFrameBatcher,
+                                ObjectMapper objectMapper,
+                                @Value("${app.chat.resume.enabled:true}") boolean enabled,
+                                @Value("${app.chat.resume.window-ms:120000}") long windowMillis,
+                                @Value("${app.chat.resume.replay-margin-ms:5000}") long replayMarginMillis,
+                                @Value("${app.chat.resume.buffer-size:128}") int bufferSize,
+                                @Value("${app.chat.resume.tick-ms:1000}") long tickMillis) {
+        this.membershipCache = membershipCache;
+        this.outboundFrameBatcher = outboundFrameBatcher;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.windowMillis = windowMillis;
+        this.replayMarginMillis = replayMarginMillis;
+        this.bufferSize = bufferSize;
+        this.wheel = new HashedTimingWheel("chat-resume-wheel", tickMillis, TimeUnit.MILLISECONDS, 256,
+                (thread, e) -> log.error("Resume token expiry failed", e));
+    }
+
+    /**
+     * How long after a disconnect events for the user may still be replayed
+     */
+    public long getRetentionMillis() {
+        return enabled ? windowMillis : 0;
+    }
+
+    /**
+     * Register a session authenticated by JWT; the token is not resumable past the JWT's expiry
+     */
+    public void open(String sessionId, Authentication authentication, long notAfterMillis) {
+        if (enabled && sessionId != null) {
+            register(sessionId, authentication, notAfterMillis, -1);
+        }
+    }
+
+    /**
+     * Authenticate a CONNECT from a resume token. Returns null if the token is unknown,
+     * used or expired, in which case the regular authentication applies.
+     */
+    public Authentication resume(String token, String sessionId) {
+        if (!enabled || sessionId == null) {
+            return null;
+        }
+        SessionState previous = tokens.remove(token);
+        if (previous == null) {
+            return null;
+        }
+        // The ring reference moves to the new session before the old one lets go of it
+        SessionState state = null;
+        if (System.currentTimeMillis() < previous.notAfter) {
+            // A session resumed again before its replay went out still owes that replay
+            long from = previous.replayFrom >= 0 ? previous.replayFrom : previous.resumeFrom;
+            state = register(sessionId, previous.authentication, previous.notAfter, from);
+            // Topics the old session followed are replayed too; the client subscribes to them again
+            for (String topic : previous.topics) {
+                follow(state, topic);
+            }
+        }
+        release(previous);
+        if (state == null) {
+            return null;
+        }
+        log.debug("Resumed session {} for user {}", sessionId, state.userId);
+        return state.authentication;
+    }
+
+    /**
+     * Advance the session's resume point, trailing by the replay margin; see the class comment
+     */
+    public void onInboundFrame(String sessionId) {
+        if (sessionId == null) {
+            return;
+        }
+        SessionState state = sessions.get(sessionId);
+        if (state == null || state.replayFrom >= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (state) {
+            if (state.markedAt > 0 && now - state.markedAt >= replayMarginMillis) {
+                state.resumeFrom = state.markSequence;
+                state.markedAt = 0;
+            }
+            if (state.markedAt == 0 && outboundFrameBatcher.isDrained(sessionId)) {
+                state.markSequence = sequence.get();
+                state.markedAt = now;
+            }
+        }
+    }
+
+    /**
+     * Keep an event pushed to the user for replay; a no-op unless the user holds a session or token
+     */
+    public void record(String userId, String destination, Object payload) {
+        append(events.get(userId), destination, payload);
+    }
+
+    /**
+     * Keep an event published to a conversation topic for replay, once for all members;
+     * a no-op unless a session or token of a member follows the topic
+     */
+    public void recordTopic(String conversationId, String destination, Object payload) {
+        append(topicEvents.get(conversationId), destination, payload);
+    }
+
+    /**
+     * Keep an event another node published, as delivered to this node's broker
+     */
+    public void recordRelayed(String destination, byte[] payload) {
+        Events target = null;
+        if (destination.startsWith(ConversationTopicAuthorizer.TOPIC_PREFIX)) {
+            String conversationId = conversationIdOf(destination);
+            if (destination.equals(ConversationTopicAuthorizer.topicFor(conversationId))
+                    || destination.endsWith(REPLAYED_TOPIC_SUFFIX)) {
+                target = topicEvents.get(conversationId);
+            }
+        } else if (destination.startsWith(USER_PREFIX)) {
+            int end = destination.indexOf('/', USER_PREFIX.length());
+            if (end > 0 && REPLAYED_USER_QUEUES.contains(destination.substring(end))) {
+                target = events.get(destination.substring(USER_PREFIX.length(), end));
+                destination = "/user" + destination.substring(end);
+            }
+        }
+        if (target == null) {
+            return;
+        }
+        try {
+            append(target, destination, objectMapper.readTree(payload));
+        } catch (IOException e) {
+            log.debug("Not recording undecodable relayed event for {}: {}", destination, e.getMessage());
+        }
+    }
+
+    /**
+     * The session's resume token and, on the first call after a resume, the missed events
+     */
+    public SessionResumeResponse handshake(String sessionId) {
+        if (!enabled) {
+            return SessionResumeResponse.builder().resumed(false).truncated(false).missedEvents(List.of()).build();
+        }
+        SessionState state = sessionId != null ? sessions.get(sessionId) : null;
+        if (state == null) {
+            throw new UnauthorizedException("Session is not authenticated");
+        }
+        long from;
+        synchronized (state) {
+            from = state.replayFrom;
+            state.replayFrom = -1;
+        }
+        List<Recorded> missed = new ArrayList<>();
+        boolean truncated = false;
+        if (from >= 0) {
+            truncated = collect(state.events, from, null, missed);
+            for (String topic : state.topics) {
+                String conversationId = conversationIdOf(topic);
+                if (membershipCache.isParticipant(conversationId, state.userId)) {
+                    truncated |= collect(topicEvents.get(conversationId), from, state.topics, missed);
+                }
+            }
+            missed.sort(Comparator.comparingLong(Recorded::sequence));
+        }
+        return SessionResumeResponse.builder()
+                .resumeToken(state.token)
+                .resumeWindowMs(windowMillis)
+                .resumed(from >= 0)
+                .truncated(truncated)
+                .missedEvents(missed.stream().map(Recorded::event).toList())
+                .build();
+    }
+
+    /**
+     * Remember conversation topics the session follows, so their events are kept for it
+     */
+    @EventListener
+    public void onSubscribed(SessionSubscribeEvent event) {
+        String destination = SimpMessageHeaderAccessor.getDestination(event.getMessage().getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (destination == null || sessionId == null || !destination.startsWith(ConversationTopicAuthorizer.TOPIC_PREFIX)) {
+            return;
+        }
+        SessionState state = sessions.get(sessionId);
+        if (state != null) {
+            follow(state, destination);
+        }
+    }
+
+    @EventListener
+    public void onDisconnected(SessionDisconnectEvent event) {
+        SessionState state = sessions.remove(event.getSessionId());
+        // Unless already resumed elsewhere, the token stays usable for the window
+        if (state != null && tokens.get(state.token) == state) {
+            wheel.schedule(() -> {
+                if (tokens.remove(state.token, state)) {
+                    release(state);
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        wheel.close();
+    }
+
+    private SessionState register(String sessionId, Authentication authentication, long notAfter, long replayFrom) {
+        Events userEvents = events.compute(authentication.getName(), (id, existing) -> {
+            Events held = existing != null ? existing : new Events(bufferSize);
+            held.holders++;
+            return held;
+        });
+        SessionState state = new SessionState(newToken(), authentication, notAfter, userEvents);
+        state.resumeFrom = sequence.get();
+        state.replayFrom = replayFrom;
+        tokens.put(state.token, state);
+        SessionState replaced = sessions.put(sessionId, state);
+        if (replaced != null && tokens.remove(replaced.token, replaced)) {
+            release(replaced);
+        }
+        return state;
+    }
+
+    /**
+     * The state holds its conversation's ring from its first topic of that conversation on
+     */
+    private void follow(SessionState state, String topic) {
+        String conversationId = conversationIdOf(topic);
+        synchronized (state) {
+            boolean first = state.topics.stream().noneMatch(held -> conversationIdOf(held).equals(conversationId));
+            if (!state.topics.add(topic) || !first) {
+                return;
+            }
+            topicEvents.compute(conversationId, (id, existing) -> {
+                Events held = existing != null ? existing : new Events(bufferSize);
+                held.holders++;
+                return held;
+            });
+        }
+    }
+
+    private void release(SessionState state) {
+        events.computeIfPresent(state.userId, (id, held) -> --held.holders > 0 ? held : null);
+        synchronized (state) {
+            state.topics.stream().map(SessionResumeService::conversationIdOf).distinct().forEach(conversationId ->
+                    topicEvents.computeIfPresent(conversationId, (id, held) -> --held.holders > 0 ? held : null));
+        }
+    }
+
+    private void append(Events target, String destination, Object payload) {
+        if (target == null) {
+            return;
+        }
+        RingBuffer<Recorded> ring = target.ring;
+        // Sequences increase along each ring
+        synchronized (ring) {
+            ring.append(new Recorded(sequence.getAndIncrement(), new ReplayedEvent(destination, payload)));
+        }
+    }
+
+    /**
+     * Add the ring's events from the sequence on, limited to the given destinations if any.
+     * Returns true if events from that sequence on may have been overwritten.
+     */
+    private static boolean collect(Events source, long from, Set<String> destinations, List<Recorded> into) {
+        if (source == null) {
+            return false;
+        }
+        RingBuffer<Recorded> ring = source.ring;
+        List<Recorded> held = ring.readFrom(ring.firstSequence());
+        for (Recorded recorded : held) {
+            if (recorded.sequence() >= from
+                    && (destinations == null || destinations.contains(recorded.event().destination()))) {
+                into.add(recorded);
+            }
+        }
+        return ring.firstSequence() > 0 && !held.isEmpty() && held.get(0).sequence() > from;
+    }
+
+    private static String conversationIdOf(String topic) {
+        int end = topic.indexOf('/', ConversationTopicAuthorizer.TOPIC_PREFIX.length());
+        return topic.substring(ConversationTopicAuthorizer.TOPIC_PREFIX.length(), end < 0 ? topic.length() : end);
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,176 @@
+package com.ispilo.service;
+
+import com.ispilo.exception.BadRequestException;
+import com.ispilo.model.dto.response.ConversationDeltaResponse;
+import com.ispilo.model.dto.response.ReadWatermarkResponse;
+import com.ispilo.model.dto.response.SyncResponse;
+import com.ispilo.model.entity.Conversation;
+import com.ispilo.model.entity.ConversationReadState;
+import com.ispilo.model.entity.Message;
+import com.ispilo.repository.ConversationReadStateRepository;
+import com.ispilo.repository.ConversationRepository;
+import com.ispilo.repository.ConversationRepository.ConversationSeqView;
+import com.ispilo.repository.MessageRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Delta sync for reconnecting clients.
+ * The client sends the last sequence it holds per conversation; only
+ * conversations whose last_seq moved are queried, and only for rows past
+ * that sequence, so the cost follows what changed rather than history size.
+ * Read watermarks are returned for every changed conversation, and for any
+ * other conversation whose watermarks moved after the client's readSince.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SyncService {
+
+    private final ConversationRepository conversationRepository;
+    private final MessageRepository messageRepository;
+    private final MessageDecryptionService decryptionService;
+    private final ConversationReadStateRepository readStateRepository;
+    private final ReadWatermarkService readWatermarkService;
+
+    @Value("${app.chat.sync.max-messages-per-conversation:200}")
+    private int maxMessagesPerConversation;
+
+    /**
+     * @param since     entries of the form "conversationId:seq"; unlisted conversations sync from 0
+     * @param readSince serverTime of the client's previous sync, if any
+     */
+    @Transactional(readOnly = true)
+    public SyncResponse sync(String userId, List<String> since, LocalDateTime readSince) {
+        LocalDateTime serverTime = LocalDateTime.now();
+        Map<String, Long> knownSeqs = parseSince(since);
+
+        List<ConversationSeqView> states = conversationRepository.findSeqStatesByParticipant(userId);
+        List<ConversationSeqView> changed = states.stream()
+                .filter(state -> state.getLastSeq() != null
+                        && state.getLastSeq() > knownSeqs.getOrDefault(state.getConversationId(), 0L))
+                .toList();
+        Set<String> changedIds = changed.stream()
+                .map(ConversationSeqView::getConversationId)
+                .collect(Collectors.toSet());
+
+        Map<String, List<ReadWatermarkResponse>> watermarks = loadWatermarks(states, changedIds, readSince);
+
+        Map<String, Conversation> conversations = conversationRepository
+                .findAllById(changedIds)
+                .stream()
+                .collect(Collectors.toMap(Conversation::getId, Function.identity()));
+
+        List<ConversationDeltaResponse> deltas = new ArrayList<>(changed.size());
+        for (ConversationSeqView state : changed) {
+            Conversation conversation = conversations.get(state.getConversationId());
+            if (conversation != null) {
+                ConversationDeltaResponse delta = buildDelta(conversation, state.getLastSeq(),
+                        knownSeqs.getOrDefault(state.getConversationId(), 0L));
+                List<ReadWatermarkResponse> conversationWatermarks =
+                        watermarks.getOrDefault(conversation.getId(), List.of());
+                delta.setReadWatermarks(conversationWatermarks);
+                readWatermarkService.applyReadState(delta.getMessages(), conversationWatermarks.stream()
+                        .collect(Collectors.toMap(ReadWatermarkResponse::getUserId,
+                                ReadWatermarkResponse::getLastReadSeq)), userId);
+                deltas.add(delta);
+            }
+        }
+
+        // Conversations with no new messages but moved watermarks
+        for (ConversationSeqView state : states) {
+            String conversationId = state.getConversationId();
+            if (!changedIds.contains(conversationId) && watermarks.containsKey(conversationId)) {
+                deltas.add(ConversationDeltaResponse.builder()
+                        .conversationId(conversationId)
+                        .lastSeq(state.getLastSeq())
+                        .syncedSeq(knownSeqs.getOrDefault(conversationId, 0L))
+                        .messages(List.of())
+                        .deletedMessageIds(List.of())
+                        .readWatermarks(watermarks.get(conversationId))
+                        .build());
+            }
+        }
+
+        log.debug("Sync for user {}: {} changed conversations", userId, deltas.size());
+        return SyncResponse.builder()
+                .conversations(deltas)
+                .serverTime(serverTime)
+                .build();
+    }
+
+    private Map<String, List<ReadWatermarkResponse>> loadWatermarks(List<ConversationSeqView> states,
+                                                                    Set<String> changedIds,
+                                                                    LocalDateTime readSince) {
+        List<ConversationReadState> readStates = new ArrayList<>();
+        if (!changedIds.isEmpty()) {
+            readStates.addAll(readStateRepository.findByConversationIdIn(changedIds));
+        }
+        if (readSince != null && !states.isEmpty()) {
+            List<String> unchangedIds = states.stream()
+                    .map(ConversationSeqView::getConversationId)
+                    .filter(id -> !changedIds.contains(id))
+                    .toList();
+            if (!unchangedIds.isEmpty()) {
+                readStates.addAll(readStateRepository.findUpdatedSince(unchangedIds, readSince));
+            }
+        }
+        return readStates.stream().collect(Collectors.groupingBy(ConversationReadState::getConversationId,
+                Collectors.mapping(ReadWatermarkResponse::fromEntity, Collectors.toList())));
+    }
+
+    private ConversationDeltaResponse buildDelta(Conversation conversation, long lastSeq, long sinceSeq) {
+        List<Message> messages = messageRepository.findSinceSeq(
+                conversation.getId(), sinceSeq, Limit.of(maxMessagesPerConversation + 1));
+        boolean hasMore = messages.size() > maxMessagesPerConversation;
+        if (hasMore) {
+            messages = messages.subList(0, maxMessagesPerConversation);
+        }
+
+        // A client starting from zero has nothing to remove
+        List<String> deletedIds = sinceSeq > 0
+                ? messageRepository.findIdsDeletedSinceSeq(conversation.getId(), sinceSeq)
+                : List.of();
+
+        return ConversationDeltaResponse.builder()
+                .conversationId(conversation.getId())
+                .lastSeq(lastSeq)
+                .syncedSeq(hasMore ? messages.get(messages.size() - 1).getSeq() : lastSeq)
+                .messages(decryptionService.toResponses(messages, conversation.getEncryptionKey()))
+                .deletedMessageIds(deletedIds)
+                .hasMore(hasMore)
+                .build();
+    }
+
+    private Map<String, Long> parseSince(List<String> since) {
+        Map<String, Long> knownSeqs = new HashMap<>();
+        if (since == null) {
+            return knownSeqs;
+        }
+        for (String entry : since) {
+            int separator = entry.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new BadRequestException("Invalid since entry: " + entry);
+            }
+            try {
+                knownSeqs.put(entry.substring(0, separator), Long.parseLong(entry.substring(separator + 1)));
+            } catch (NumberFormatException e) {
+                throw new BadRequestException("Invalid since entry: " + entry);
+            }
+        }
+        return knownSeqs;
+    }
+}
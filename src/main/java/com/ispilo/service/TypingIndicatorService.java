@@ -0,0 +1,138 @@
+package com.ispilo.service;
+
+import com.ispilo.util.HashedTimingWheel;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces typing frames per (user, conversation).
+ * At most one "typing" is broadcast per emit interval, and "stopped" is sent
+ * automatically once no frame arrived for the stop delay. One timing wheel
+ * serves every typer: each typing state holds a single timeout that re-arms
+ * itself on expiry, so incoming frames never touch the timer.
+ */
+@Service
+@Slf4j
+public class TypingIndicatorService {
+
+    public record TypingIndicator(String userId, String username, boolean isTyping) {}
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ConversationMembershipCache membershipCache;
+    private final HashedTimingWheel wheel;
+    private final long emitIntervalMillis;
+    private final long stopAfterMillis;
+    private final Map<String, TypingState> states = new ConcurrentHashMap<>();
+
+    public TypingIndicatorService(SimpMessagingTemplate messagingTemplate,
+                                  ConversationMembershipCache membershipCache,
+                                  @Value("${app.chat.typing.emit-interval-ms:3000}") long emitIntervalMillis,
+                                  @Value("${app.chat.typing.stop-after-ms:5000}") long stopAfterMillis,
+                                  @Value("${app.chat.typing.tick-ms:100}") long tickMillis) {
+        this.messagingTemplate = messagingTemplate;
+        this.membershipCache = membershipCache;
+        this.emitIntervalMillis = emitIntervalMillis;
+        this.stopAfterMillis = stopAfterMillis;
+        // One wheel revolution spans the stop delay, so most timeouts fire in their first round
+        int ticksPerWheel = (int) Math.max(64, stopAfterMillis / Math.max(1, tickMillis));
+        this.wheel = new HashedTimingWheel("chat-typing-wheel", tickMillis, TimeUnit.MILLISECONDS, ticksPerWheel,
+                (thread, e) -> log.error("Typing timer task failed", e));
+    }
+
+    public void onTypingFrame(String userId, String conversationId, boolean isTyping) {
+        if (!membershipCache.isParticipant(conversationId, userId)) {
+            return;
+        }
+        String key = userId + '|' + conversationId;
+        long now = System.currentTimeMillis();
+
+        if (!isTyping) {
+            TypingState state = states.remove(key);
+            if (state != null) {
+                state.stop();
+            }
+            return;
+        }
+
+        TypingState state = states.computeIfAbsent(key, k -> new TypingState(k, userId, conversationId));
+        state.frame(now);
+    }
+
+    public int activeTypers() {
+        return states.size();
+    }
+
+    @PreDestroy
+    void close() {
+        wheel.close();
+    }
+
+    private void broadcast(String userId, String conversationId, boolean isTyping) {
+        messagingTemplate.convertAndSend(
+                "/topic/conversation/" + conversationId + "/typing",
+                new TypingIndicator(userId, userId, isTyping)
+        );
+    }
+
+    private final class TypingState {
+
+        private final String key;
+        private final String userId;
+        private final String conversationId;
+        private long lastFrameAt;
+        private long lastEmitAt;
+        private boolean armed;
+        private boolean stopped;
+
+        TypingState(String key, String userId, String conversationId) {
+            this.key = key;
+            this.userId = userId;
+            this.conversationId = conversationId;
+        }
+
+        synchronized void frame(long now) {
+            if (stopped) {
+                // Lost a race with expiry; start over with a fresh state
+                onTypingFrame(userId, conversationId, true);
+                return;
+            }
+            lastFrameAt = now;
+            if (lastEmitAt == 0 || now - lastEmitAt >= emitIntervalMillis) {
+                lastEmitAt = now;
+                broadcast(userId, conversationId, true);
+            }
+            if (!armed) {
+                armed = true;
+                wheel.schedule(this::expire, stopAfterMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void stop() {
+            if (!stopped) {
+                stopped = true;
+                broadcast(userId, conversationId, false);
+            }
+        }
+
+        private synchronized void expire() {
+            if (stopped) {
+                return;
+            }
+            long idle = System.currentTimeMillis() - lastFrameAt;
+            if (idle < stopAfterMillis) {
+                wheel.schedule(this::expire, stopAfterMillis - idle, TimeUnit.MILLISECONDS);
+                return;
+            }
+            armed = false;
+            states.remove(key, this);
+            stop();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.ispilo.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical timing wheel: several rings of slots, each slot of a level spanning one
+ * full revolution of the level below, as in the Linux kernel timer wheel. A timeout goes
+ * on the lowest level whose range covers its delay and moves down a level whenever its
+ * slot comes up, so it is touched at most once per level however long the delay. Unlike
+ * HashedTimingWheel, a tick never walks over timeouts that are not due yet, which keeps
+ * ticks cheap with hundreds of thousands of long-lived timeouts.
+ * One thread owns the slots; scheduling is O(1) and adds to a lock-free queue. Deadlines
+ * are rounded up to the tick, and tasks run on the wheel thread, so they must be short
+ * and must not block. Cancelled timeouts are dropped when their slot comes up.
+ */
+public final class HierarchicalTimingWheel implements AutoCloseable {
+
+    private static final int ST_ACTIVE = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    /**
+     * Handle of a scheduled task
+     */
+    public static final class Timeout {
+
+        private final Runnable task;
+        private final long deadlineTick;
+        private final AtomicInteger state = new AtomicInteger(ST_ACTIVE);
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Returns false if the task already ran or was cancelled
+         */
+        public boolean cancel() {
+            return state.compareAndSet(ST_ACTIVE, ST_CANCELLED);
+        }
+
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+    }
+
+    private final Timeout[][] levels;
+    private final int bits;
+    private final int mask;
+    // Ticks covered by all levels; later deadlines wait in the top level and are placed again
+    private final long span;
+    private final long tickNanos;
+    private final long startNanos;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final Thread.UncaughtExceptionHandler errorHandler;
+
+    private volatile boolean running = true;
+    // Next tick to process
+    private long tick;
+
+    /**
+     * @param slotsPerLevel rounded up to a power of two
+     * @param levelCount    levels of slots; the wheel covers slotsPerLevel^levelCount ticks
+     *                      before far deadlines have to be placed again
+     */
+    public HierarchicalTimingWheel(String name, long tickDuration, TimeUnit unit, int slotsPerLevel, int levelCount,
+                                   Thread.UncaughtExceptionHandler errorHandler) {
+        int size = Integer.highestOneBit(Math.max(1, slotsPerLevel - 1)) << 1;
+        this.bits = Integer.numberOfTrailingZeros(size);
+        // Keep the covered range within a long
+        int count = Math.max(1, Math.min(levelCount, 62 / bits));
+        this.levels = new Timeout[count][size];
+        this.mask = size - 1;
+        this.span = 1L << (bits * count);
+        this.tickNanos = Math.max(1, unit.toNanos(tickDuration));
+        this.errorHandler = errorHandler;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Run the task once after roughly the given delay
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("Timing wheel is stopped");
+        }
+        long elapsedTicks = (System.nanoTime() - startNanos + unit.toNanos(Math.max(0, delay)) + tickNanos - 1) / tickNanos;
+        Timeout timeout = new Timeout(task, elapsedTicks);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+            if ((tick & mask) == 0 && tick > 0) {
+                cascade();
+            }
+            transferPending();
+            expire(drain(0, (int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    /**
+     * Level 0 wrapped: move the next slot of level 1 down, and so on up while levels wrap too
+     */
+    private void cascade() {
+        for (int level = 1; level < levels.length; level++) {
+            int index = (int) ((tick >>> (bits * level)) & mask);
+            Timeout timeout = drain(level, index);
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                timeout.next = null;
+                if (!timeout.isCancelled()) {
+                    place(timeout);
+                }
+                timeout = next;
+            }
+            if (index != 0) {
+                return;
+            }
+        }
+    }
+
+    private void transferPending() {
+        // Bounded per tick so a flood of new timeouts cannot starve expiry
+        for (int i = 0; i < 100_000; i++) {
+            Timeout timeout = pending.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (!timeout.isCancelled()) {
+                place(timeout);
+            }
+        }
+    }
+
+    private void place(Timeout timeout) {
+        long deadline = Math.max(timeout.deadlineTick, tick);
+        long delta = deadline - tick;
+        int level = 0;
+        while (level < levels.length - 1 && delta >= 1L << (bits * (level + 1))) {
+            level++;
+        }
+        if (delta >= span) {
+            // Parked in the top level's last slot before wrapping, then placed again
+            deadline = tick + span - 1;
+        }
+        int index = (int) ((deadline >>> (bits * level)) & mask);
+        timeout.next = levels[level][index];
+        levels[level][index] = timeout;
+    }
+
+    private Timeout drain(int level, int index) {
+        Timeout head = levels[level][index];
+        levels[level][index] = null;
+        return head;
+    }
+
+    private void expire(Timeout timeout) {
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            if (timeout.deadlineTick > tick && !timeout.isCancelled()) {
+                // Not due yet, only possible for a deadline parked past the covered range
+                place(timeout);
+            } else if (timeout.state.compareAndSet(ST_ACTIVE, ST_EXPIRED)) {
+                try {
+                    timeout.task.run();
+                } catch (Throwable t) {
+                    errorHandler.uncaughtException(worker, t);
+                }
+            }
+            timeout = next;
+        }
+    }
+}
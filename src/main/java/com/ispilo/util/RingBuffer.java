@@ -0,0 +1,55 @@
+package com.ispilo.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-capacity ring of the most recent items, each numbered by a sequence that keeps
+ * counting across wrap-arounds. Appending overwrites the oldest item once full.
+ * Readers ask for everything from a sequence on and can tell from firstSequence()
+ * whether part of that range was already overwritten.
+ */
+public final class RingBuffer<T> {
+
+    private final Object[] slots;
+    // Sequence the next append gets; written under the lock, read without it
+    private volatile long next;
+
+    public RingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.slots = new Object[capacity];
+    }
+
+    public synchronized long append(T item) {
+        long sequence = next;
+        slots[(int) (sequence % slots.length)] = item;
+        next = sequence + 1;
+        return sequence;
+    }
+
+    public long nextSequence() {
+        return next;
+    }
+
+    /**
+     * Oldest sequence still held
+     */
+    public long firstSequence() {
+        return Math.max(0, next - slots.length);
+    }
+
+    /**
+     * Items from the given sequence on, oldest first; overwritten ones are skipped
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<T> readFrom(long sequence) {
+        long from = Math.max(sequence, firstSequence());
+        List<T> items = new ArrayList<>((int) Math.max(0, next - from));
+        for (long s = from; s < next; s++) {
+            items.add((T) slots[(int) (s % slots.length)]);
+        }
+        return items;
+    }
+}
@@ -0,0 +1,185 @@
+package com.ispilo.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only record log on memory-mapped, fixed-size segment files.
+ * Record layout: [int length][int crc32c][payload]. The zero-filled tail of a
+ * segment reads as length 0, which marks its end.
+ *
+ * Appends are serialized; {@link #force(long)} is a group commit, one msync
+ * covers every record appended before it. Replay stops a segment at the first
+ * torn or corrupt record, and a reopened log always starts a fresh segment.
+ */
+public final class SegmentedLog implements Closeable {
+
+    private static final int HEADER_SIZE = 8;
+    private static final String SUFFIX = ".wal";
+
+    public record Appended(long segment, long ticket) {}
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Object forceLock = new Object();
+
+    private long segmentId;
+    private MappedByteBuffer current;
+    private long appendedTicket;
+    private volatile long forcedTicket;
+
+    public SegmentedLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+            List<Long> existing = segmentIds();
+            this.segmentId = existing.isEmpty() ? 0 : existing.get(existing.size() - 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open log directory " + directory, e);
+        }
+    }
+
+    /**
+     * Read every intact record of the existing segments, oldest first
+     */
+    public void replay(BiConsumer<Long, byte[]> consumer) {
+        CRC32C crc = new CRC32C();
+        for (long id : segmentIds()) {
+            try (FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= HEADER_SIZE) {
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining()) {
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    buffer.get(payload);
+                    crc.reset();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    consumer.accept(id, payload);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to replay log segment " + id, e);
+            }
+        }
+    }
+
+    /**
+     * Append one record. It is durable only after {@link #force(long)} with the returned ticket.
+     */
+    public synchronized Appended append(byte[] payload) {
+        int recordSize = HEADER_SIZE + payload.length;
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes exceeds the segment size");
+        }
+        if (current == null || current.remaining() < recordSize) {
+            rotate();
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        current.putInt(payload.length);
+        current.putInt((int) crc.getValue());
+        current.put(payload);
+        return new Appended(segmentId, ++appendedTicket);
+    }
+
+    /**
+     * Block until the record with this ticket is on disk
+     */
+    public void force(long ticket) {
+        if (forcedTicket >= ticket) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (forcedTicket >= ticket) {
+                return;
+            }
+            long target;
+            MappedByteBuffer buffer;
+            synchronized (this) {
+                target = appendedTicket;
+                buffer = current;
+            }
+            // Earlier segments were forced when they were rotated out
+            buffer.force();
+            forcedTicket = target;
+        }
+    }
+
+    public synchronized long currentSegment() {
+        return segmentId;
+    }
+
+    /**
+     * Delete closed segments older than the given id
+     */
+    public void deleteSegmentsBefore(long segment) {
+        long limit = Math.min(segment, currentSegment());
+        for (long id : segmentIds()) {
+            if (id >= limit) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(segmentPath(id));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to delete log segment " + id, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (current != null) {
+            current.force();
+            current = null;
+        }
+    }
+
+    private void rotate() {
+        if (current != null) {
+            current.force();
+        }
+        segmentId++;
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentId),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            current = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create log segment " + segmentId, e);
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%020d%s", id, SUFFIX));
+    }
+
+    private List<Long> segmentIds() {
+        List<Long> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .forEach(name -> ids.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list log directory " + directory, e);
+        }
+        ids.sort(null);
+        return ids;
+    }
+}
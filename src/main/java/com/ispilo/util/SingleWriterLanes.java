@@ -0,0 +1,125 @@
+package com.ispilo.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Fixed set of single-threaded lanes. Work is routed by key hash, so everything for one
+ * key runs on one thread in submission order and never concurrently with itself.
+ * Each lane hands its handler whatever has queued up, up to maxBatch items at a time,
+ * so a busy key is processed in batches rather than item by item.
+ * The handler is expected to settle every item itself, failures included.
+ */
+public final class SingleWriterLanes<T> implements AutoCloseable {
+
+    // How often an idle lane checks for close()
+    private static final long POLL_MILLIS = 100;
+
+    private final List<Lane> lanes;
+    private final int maxBatch;
+    private final Consumer<List<T>> handler;
+
+    private volatile boolean running = true;
+
+    public SingleWriterLanes(String name, int laneCount, int queueCapacity, int maxBatch, Consumer<List<T>> handler) {
+        if (laneCount < 1 || queueCapacity < 1 || maxBatch < 1) {
+            throw new IllegalArgumentException("laneCount, queueCapacity and maxBatch must be positive");
+        }
+        this.maxBatch = maxBatch;
+        this.handler = handler;
+        List<Lane> created = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            Lane lane = new Lane(name + "-" + i, queueCapacity);
+            created.add(lane);
+            lane.thread.start();
+        }
+        this.lanes = List.copyOf(created);
+    }
+
+    public int laneCount() {
+        return lanes.size();
+    }
+
+    public int laneFor(Object key) {
+        // Spread the hash so similar keys do not pile onto one lane
+        int hash = key.hashCode();
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % lanes.size();
+    }
+
+    /**
+     * Queue an item on the key's lane, waiting up to the timeout while the lane is full.
+     * Returns false if the lane stayed full or the lanes are closed.
+     */
+    public boolean submit(Object key, T item, long timeout, TimeUnit unit) throws InterruptedException {
+        return running && lanes.get(laneFor(key)).queue.offer(item, timeout, unit);
+    }
+
+    public int queued() {
+        int total = 0;
+        for (Lane lane : lanes) {
+            total += lane.queue.size();
+        }
+        return total;
+    }
+
+    /**
+     * Stop taking work and wait for the lanes to finish what is queued
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private final class Lane implements Runnable {
+
+        private final BlockingQueue<T> queue;
+        private final Thread thread;
+
+        private Lane(String name, int queueCapacity) {
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<T> batch = new ArrayList<>(maxBatch);
+            while (true) {
+                T first;
+                try {
+                    first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (first == null) {
+                    if (!running) {
+                        return; // closed and drained
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                try {
+                    handler.accept(batch);
+                } catch (RuntimeException e) {
+                    // Keep the lane alive; the items of this batch are lost to the handler
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+}
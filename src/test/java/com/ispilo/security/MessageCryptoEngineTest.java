@@ -0,0 +1,134 @@
+package com.ispilo.security;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageCryptoEngineTest {
+
+    private static final List<String> SAMPLES = List.of(
+            "",
+            "hello",
+            "café naïve",
+            "中文消息",
+            "😀 👍🏽 family 👨‍👩‍👧",
+            "x".repeat(5000));
+
+    private final MessageCryptoEngine engine = new MessageCryptoEngine(16);
+    private final String key = newKey();
+
+    @Test
+    void gcmRoundTrip() {
+        for (String plain : SAMPLES) {
+            String encrypted = engine.encrypt(plain, key);
+            assertTrue(encrypted.startsWith(MessageCryptoEngine.GCM_PREFIX));
+            assertEquals(plain, engine.decrypt(encrypted, key));
+        }
+    }
+
+    @Test
+    void unpairedSurrogatesEncodeLikeStringGetBytes() {
+        for (String plain : List.of("a\uD83D", "\uDE00b", "\uD83D😀", "\uDE00\uD83D", "x\uD800y\uDFFFz")) {
+            String expected = new String(plain.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            assertEquals(expected, engine.decrypt(engine.encrypt(plain, key), key));
+            assertEquals(expected, engine.decrypt(engine.encryptLegacy(plain, key), key));
+        }
+    }
+
+    @Test
+    void gcmBase64MatchesJdkForEveryPaddingLength() throws Exception {
+        // IV + tag is 28 bytes, so 0, 1 and 2 plaintext bytes give each remainder mod 3
+        for (int length = 0; length < 6; length++) {
+            String plain = "a".repeat(length);
+            String encrypted = engine.encrypt(plain, key);
+            byte[] raw = Base64.getDecoder().decode(encrypted.substring(MessageCryptoEngine.GCM_PREFIX.length()));
+            assertEquals(28 + length, raw.length);
+            assertEquals(MessageCryptoEngine.GCM_PREFIX + Base64.getEncoder().encodeToString(raw), encrypted);
+            assertEquals(plain, jdkGcmDecrypt(raw));
+        }
+    }
+
+    @Test
+    void legacyMatchesJdkForEveryPaddingLength() throws Exception {
+        // 16, 32 and 48 byte ciphertexts leave remainders 1, 2 and 0
+        for (String plain : List.of("a", "a".repeat(16), "a".repeat(32), "é".repeat(20))) {
+            Cipher cipher = Cipher.getInstance("AES");
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey());
+            String expected = Base64.getEncoder().encodeToString(cipher.doFinal(plain.getBytes(StandardCharsets.UTF_8)));
+            assertEquals(expected, engine.encryptLegacy(plain, key));
+            assertEquals(plain, engine.decrypt(expected, key));
+            assertEquals(plain, engine.decryptLegacy(expected, key));
+        }
+    }
+
+    @Test
+    void decryptTellsLegacyFromGcm() {
+        String plain = "same text";
+        String legacy = engine.encryptLegacy(plain, key);
+        String gcm = engine.encrypt(plain, key);
+        assertFalse(legacy.startsWith(MessageCryptoEngine.GCM_PREFIX));
+        assertEquals(plain, engine.decrypt(legacy, key));
+        assertEquals(plain, engine.decrypt(gcm, key));
+        // GCM output is not valid legacy ciphertext
+        assertThrows(RuntimeException.class, () -> engine.decryptLegacy(gcm, key));
+    }
+
+    @Test
+    void tamperedGcmValueIsRejected() {
+        String encrypted = engine.encrypt("transfer 100", key);
+        byte[] raw = Base64.getDecoder().decode(encrypted.substring(MessageCryptoEngine.GCM_PREFIX.length()));
+        for (int index : new int[]{0, 12, raw.length - 1}) {
+            byte[] tampered = Arrays.copyOf(raw, raw.length);
+            tampered[index] ^= 1;
+            String value = MessageCryptoEngine.GCM_PREFIX + Base64.getEncoder().encodeToString(tampered);
+            assertThrows(RuntimeException.class, () -> engine.decrypt(value, key));
+        }
+        assertThrows(RuntimeException.class, () -> engine.decrypt(encrypted, newKey()));
+        // The thread's cipher is still usable after a failed tag check
+        assertEquals("transfer 100", engine.decrypt(encrypted, key));
+    }
+
+    @Test
+    void malformedBase64IsRejected() {
+        for (String value : List.of("g1:A", "g1:AAAAA", "g1:AA===", "g1:AAA*", "g1:AAAA")) {
+            assertThrows(RuntimeException.class, () -> engine.decrypt(value, key));
+        }
+    }
+
+    @Test
+    void encryptedLengthMatchesEncrypt() {
+        for (String plain : SAMPLES) {
+            assertEquals(engine.encrypt(plain, key).length(), MessageCryptoEngine.encryptedLength(plain));
+        }
+        String unpaired = "a\uD83Db\uDE00";
+        assertEquals(engine.encrypt(unpaired, key).length(), MessageCryptoEngine.encryptedLength(unpaired));
+    }
+
+    private String jdkGcmDecrypt(byte[] raw) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, secretKey(), new GCMParameterSpec(128, raw, 0, 12));
+        return new String(cipher.doFinal(raw, 12, raw.length - 12), StandardCharsets.UTF_8);
+    }
+
+    private SecretKeySpec secretKey() {
+        return new SecretKeySpec(Base64.getDecoder().decode(key), "AES");
+    }
+
+    private static String newKey() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+}